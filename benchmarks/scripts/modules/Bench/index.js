@@ -0,0 +1,74 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* global log */
+
+({
+  _setup(moduleName, args, system, path, ctx) {
+    this._loggername = "modules." + moduleName;
+  },
+  getLoggerName() {
+    return this._loggername;
+  },
+  echo(args, ctx) {
+    return args;
+  },
+  nested(args, ctx) {
+    var depth = args != null ? args.depth : 0;
+    if (depth == null || depth <= 0)
+      return {"depth": ctx.callDepth()};
+    return ctx.call("Bench.nested", {"depth": depth - 1});
+  },
+  rows(args, ctx) {
+    var count = args != null && args.count != null ? args.count : 1000;
+    var rows = [];
+    for (var i=0; i<count; i++) {
+      rows.push({
+        "id": i,
+        "name": "Employee " + i,
+        "email": "employee" + i + "@example.com",
+        "active": (i % 2) == 0,
+        "salary": 1000.5 + i,
+        "tags": ["a", "b", "c"]
+      });
+    }
+    return rows;
+  },
+  user(args, ctx) {
+    return ctx.getUser().username;
+  },
+  token(args, ctx) {
+    return ctx.service("jwt").encode(JSON.stringify(args));
+  },
+  logInfo(args, ctx) {
+    var count = args != null && args.count != null ? args.count : 10;
+    for (var i=0; i<count; i++)
+      log.info(this, "Row {} of {}", i, count);
+    return count;
+  },
+  logDebug(args, ctx) {
+    var count = args != null && args.count != null ? args.count : 10;
+    for (var i=0; i<count; i++)
+      log.debug(this, "Row {} of {}", i, count);
+    return count;
+  },
+  logConsole(args, ctx) {
+    var count = args != null && args.count != null ? args.count : 10;
+    for (var i=0; i<count; i++)
+      console.debug("Row " + i + " of " + count);
+    return count;
+  }
+});
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Registers a preCall and a postCall hook that also run for inner calls, so
+// the benchmarks can measure the cost of the hook chains in ctx.call.
+(function() {
+
+function bench_hooks() {
+}
+
+bench_hooks.prototype = {
+  _setup(serviceName, args, system, path, ctx) {
+    this._loggername = "services." + serviceName;
+    return {
+      preCall: {fn: this.preCall, priority: 9000, inner: true},
+      postCall: {fn: this.postCall, priority: 9000, inner: true}
+    };
+  },
+  getLoggerName() {
+    return this._loggername;
+  },
+  preCall(ctx, e, action, args) {
+    ctx.req("bench_hooks_action", action);
+  },
+  postCall(ctx, e, action, args) {
+    ctx.req("bench_hooks_action", null);
+  }
+};
+
+return bench_hooks;
+
+}());
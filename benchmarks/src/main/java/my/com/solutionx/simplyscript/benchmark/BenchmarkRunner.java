@@ -0,0 +1,48 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once per thread count, so that a single invocation
+ * reports each pool_size against several levels of concurrency.
+ *
+ * Usage: java -Dthreads=1,4,16 -jar target/benchmarks.jar [JMH options]
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+public class BenchmarkRunner {
+    public static void main(String[] argv) throws Exception {
+        CommandLineOptions cmdOptions = new CommandLineOptions(argv);
+        String threads = System.getProperty("threads", "1,4,16");
+        for (String thread : threads.split(",")) {
+            int count = Integer.parseInt(thread.trim());
+            ChainedOptionsBuilder builder = new OptionsBuilder()
+                    .parent(cmdOptions)
+                    .threads(count)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("results-threads-" + count + ".json");
+            if (cmdOptions.getIncludes().isEmpty())
+                builder = builder.include(ScriptServiceBenchmark.class.getSimpleName());
+            new Runner(builder.build()).run();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import my.com.solutionx.simplyscript.ScriptService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * CPU cost of compressing a Bench.rows response the way the [web]
+ * compression option does (a pooled Deflater per response, gzip adds the
+ * CRC), against the bytes it saves. The sizes are printed once per trial,
+ * the score is the time per response.
+ *
+ * java -jar target/benchmarks.jar CompressionBenchmark
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CompressionBenchmark {
+    @Param({"10", "100", "1000"})
+    public int rows;
+
+    @Param({"1", "6", "9"})
+    public int level;
+
+    byte[] payload;
+    byte[] buffer;
+    Deflater deflater;
+    CRC32 crc = new CRC32();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String home = System.getProperty("simplyscript.home", "..");
+        Map<String, String> config = new HashMap<>();
+        config.put("working_path", home + "/");
+        config.put("scripts_path", home + "/scripts/");
+        config.put("config_path", home + "/benchmarks/config/");
+        config.put("pool_size", "1");
+        config.put("engine", ScriptServiceBenchmark.ENGINES.get(System.getProperty("bench.engine", "nashorn")));
+
+        ScriptService scriptService = new ScriptService();
+        scriptService.init(config);
+        Map<String, Object> args = new HashMap<>();
+        args.put("count", rows);
+        payload = scriptService.actionReturnString("Bench.rows", args).getBytes(StandardCharsets.UTF_8);
+        scriptService.shutdown();
+
+        buffer = new byte[payload.length + 1024];
+        deflater = new Deflater(level, true);
+        int compressed = deflate() + 18;
+        System.out.println(String.format("%nrows %d, level %d: %d bytes -> %d bytes gzip (%.1f%% saved)",
+                rows, level, payload.length, compressed, 100.0 * (payload.length - compressed) / payload.length));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        deflater.end();
+    }
+
+    @Benchmark
+    public int deflate() {
+        deflater.reset();
+        deflater.setInput(payload);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished())
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        return length;
+    }
+
+    @Benchmark
+    public int gzip(Blackhole blackhole) {
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        blackhole.consume(crc.getValue());
+        // 10 byte header and 8 byte trailer (CRC and length) around the deflate stream
+        return deflate() + 18;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript.benchmark;
+
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import my.com.solutionx.simplyscript.ScriptService;
+import my.com.solutionx.simplyscript.jwt.JwtService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The jwt service set up from JwtServiceProvider (java) against
+ * services/jwt/index.js (script, selected by mapping jwt to its script in
+ * config/jwt/script). authenticated is a call with a bearer token, so it
+ * includes the preCall that verifies the token and sets the user;
+ * anonymous is the same call without one; encode signs a new token.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class JwtBenchmark {
+    @Param({"graal", "nashorn"})
+    public String engine;
+
+    @Param({"java", "script"})
+    public String jwt;
+
+    ScriptService scriptService;
+    HeaderMap bearer;
+    Map<String, Object> user;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String home = System.getProperty("simplyscript.home", "..");
+        Map<String, String> config = new HashMap<>();
+        config.put("working_path", home + "/");
+        config.put("scripts_path", home + "/scripts/");
+        config.put("config_path", home + "/benchmarks/config/jwt/" + jwt + "/");
+        config.put("pool_size", "1");
+        config.put("engine", ScriptServiceBenchmark.ENGINES.get(engine));
+
+        scriptService = new ScriptService();
+        scriptService.init(config);
+
+        user = new HashMap<>();
+        user.put("username", "bench");
+        user.put("is_active", true);
+        user.put("is_staff", false);
+        user.put("is_superuser", false);
+        user.put("is_anonymous", false);
+        Map<String, Object> args = (Map<String, Object>)((Map<String, Object>)scriptService.getScriptConfig()
+                .get("service")).get("initArguments");
+        String token = new JwtService((Map<String, Object>)args.get("jwt")).encode(user);
+        bearer = new HeaderMap();
+        bearer.put(Headers.AUTHORIZATION, "Bearer " + token);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        scriptService.shutdown();
+    }
+
+    Map<String, Object> request(HeaderMap headers) {
+        Map<String, Object> mapReq = new HashMap<>();
+        mapReq.put("headers", headers);
+        return mapReq;
+    }
+
+    @Benchmark
+    public String authenticated() throws Exception {
+        return scriptService.actionReturnString("Bench.user", null, request(bearer));
+    }
+
+    @Benchmark
+    public String anonymous() throws Exception {
+        return scriptService.actionReturnString("Bench.user", null, request(new HeaderMap()));
+    }
+
+    @Benchmark
+    public String encode() throws Exception {
+        return scriptService.actionReturnString("Bench.token", user);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import my.com.solutionx.simplyscript.PoolableScriptContext;
+import my.com.solutionx.simplyscript.ScriptContextInterface;
+import my.com.solutionx.simplyscript.ScriptService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Actions that log count lines through the script log object: info is
+ * written (to logs/modules.log through the shipped logback.xml, so with its
+ * async appender), debug and console are below the configured level and
+ * measure what a disabled log call costs. Run from the benchmarks directory
+ * with src/main/resources on the class path for logback.xml.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LogBenchmark {
+    @Param({"graal", "nashorn"})
+    public String engine;
+
+    @Param({"10"})
+    public int count;
+
+    ScriptService scriptService;
+    PoolableScriptContext poolable;
+    ScriptContextInterface ctx;
+    Map<String, Object> args;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String home = System.getProperty("simplyscript.home", "..");
+        Map<String, String> config = new HashMap<>();
+        config.put("working_path", home + "/");
+        config.put("scripts_path", home + "/scripts/");
+        config.put("config_path", home + "/benchmarks/config/");
+        config.put("pool_size", "1");
+        config.put("engine", ScriptServiceBenchmark.ENGINES.get(engine));
+
+        scriptService = new ScriptService();
+        scriptService.init(config);
+
+        args = new HashMap<>();
+        args.put("count", count);
+
+        poolable = scriptService.claimScriptContext();
+        ctx = poolable.getScriptContext();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        poolable.release();
+        scriptService.shutdown();
+    }
+
+    Object action(String action) throws Exception {
+        try {
+            return scriptService.engine().action(ctx, action, args, new HashMap<>());
+        } finally {
+            ctx.recycle();
+        }
+    }
+
+    @Benchmark
+    public Object info() throws Exception {
+        return action("Bench.logInfo");
+    }
+
+    @Benchmark
+    public Object debug() throws Exception {
+        return action("Bench.logDebug");
+    }
+
+    @Benchmark
+    public Object console() throws Exception {
+        return action("Bench.logConsole");
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript.benchmark;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import my.com.solutionx.simplyscript.ScriptService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end benchmarks of ScriptService.action and actionReturnString
+ * against the fixture modules in benchmarks/scripts. Throughput mode gives
+ * ops/ms, SampleTime mode gives the p50/p90/p99/p99.9 latencies.
+ *
+ * Run from the benchmarks directory so that the relative script paths
+ * resolve, or pass -Dsimplyscript.home=/path/to/SimplyScript.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ScriptServiceBenchmark {
+    static final Map<String, String> ENGINES = Map.of(
+            "graal", "my.com.solutionx.simplyscript.graal.ScriptEngine",
+            "nashorn", "my.com.solutionx.simplyscript.nashorn.ScriptEngine");
+
+    @Param({"graal", "nashorn"})
+    public String engine;
+
+    @Param({"1", "4", "16"})
+    public String poolSize;
+
+    @Param({"false", "true"})
+    public boolean hooks;
+
+    ScriptService scriptService;
+    Map<String, Object> echoArgs;
+    Map<String, Object> nestedArgs;
+    Map<String, Object> rowsArgs;
+    Map<String, Object> largeArgs;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String home = System.getProperty("simplyscript.home", "..");
+        Map<String, String> config = new HashMap<>();
+        config.put("working_path", home + "/");
+        config.put("scripts_path", home + "/scripts/");
+        config.put("config_path", home + "/benchmarks/config/");
+        config.put("pool_size", poolSize);
+        config.put("engine", ENGINES.get(engine));
+        config.put("response_buffer", System.getProperty("bench.response_buffer", "65536"));
+
+        scriptService = new ScriptService();
+        scriptService.init(config);
+        if (hooks)
+            scriptService.getService("bench_hooks");
+
+        echoArgs = new HashMap<>();
+        echoArgs.put("message", "hello");
+
+        nestedArgs = new HashMap<>();
+        nestedArgs.put("depth", Integer.getInteger("bench.depth", 5));
+
+        rowsArgs = new HashMap<>();
+        rowsArgs.put("count", Integer.getInteger("bench.rows", 1000));
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i=0; i<Integer.getInteger("bench.rows", 1000); i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", i);
+            row.put("name", "Employee " + i);
+            row.put("email", "employee" + i + "@example.com");
+            row.put("active", (i % 2) == 0);
+            row.put("salary", 1000.5 + i);
+            rows.add(row);
+        }
+        largeArgs = new HashMap<>();
+        largeArgs.put("rows", rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        scriptService.getScriptContextPool().shutdown().await(new stormpot.Timeout(30, TimeUnit.SECONDS));
+        scriptService.engine().shutdown();
+    }
+
+    @Benchmark
+    public Object echo() throws Exception {
+        return scriptService.action("Bench.echo", echoArgs);
+    }
+
+    @Benchmark
+    public String echoReturnString() throws Exception {
+        return scriptService.actionReturnString("Bench.echo", echoArgs);
+    }
+
+    @Benchmark
+    public Object nested() throws Exception {
+        return scriptService.action("Bench.nested", nestedArgs);
+    }
+
+    @Benchmark
+    public String nestedReturnString() throws Exception {
+        return scriptService.actionReturnString("Bench.nested", nestedArgs);
+    }
+
+    @Benchmark
+    public String largeRequestReturnString() throws Exception {
+        return scriptService.actionReturnString("Bench.echo", largeArgs);
+    }
+
+    @Benchmark
+    public String largeResponseReturnString() throws Exception {
+        return scriptService.actionReturnString("Bench.rows", rowsArgs);
+    }
+
+    @Benchmark
+    public void largeResponseWriteTo() throws Exception {
+        scriptService.actionWriteTo("Bench.rows", rowsArgs, OutputStream.nullOutputStream());
+    }
+}
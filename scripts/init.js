@@ -1,47 +1,82 @@
+// Loggers are looked up once per name (ScriptLogger.get and _loggers here),
+// the level is checked before any argument crosses into Java, and only the
+// arguments given are passed
 let log = {
-  LoggerFactory: Java.type("org.slf4j.LoggerFactory"),
+  ScriptLogger: Java.type("my.com.solutionx.simplyscript.ScriptLogger"),
+  _loggers: new Map(),
   _getLogger(where) {
-    if (where instanceof Object && where.getLoggerName) {
-      return this.LoggerFactory.getLogger(where.getLoggerName());
-    } else {
-      return this.LoggerFactory.getLogger(where);
+    var name = where instanceof Object && where.getLoggerName ? where.getLoggerName() : where;
+    var logger = this._loggers.get(name);
+    if (logger === undefined) {
+      logger = this.ScriptLogger.get(String(name));
+      this._loggers.set(name, logger);
     }
+    return logger;
   },
-  error(where, str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10) {
-    this._getLogger(where).error(str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10);
+  // args[first] is the message, the arguments of its {} follow it
+  _write(level, where, args, first) {
+    var logger = this._getLogger(where);
+    if (!logger.isEnabled(level))
+      return;
+    var message = args[first];
+    if (typeof message !== "string")
+      message = String(message);
+    switch (args.length - first) {
+      case 0:
+      case 1:
+        logger.log(level, message);
+        break;
+      case 2:
+        logger.log(level, message, args[first+1]);
+        break;
+      case 3:
+        logger.log(level, message, args[first+1], args[first+2]);
+        break;
+      default:
+        logger.logArgs(level, message, Java.to(Array.prototype.slice.call(args, first+1)));
+    }
+  },
+  error(where, str) {
+    this._write(this.ERROR, where, arguments, 1);
   },
-  warn(where, str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10) {
-    this._getLogger(where).warn(str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10);
+  warn(where, str) {
+    this._write(this.WARN, where, arguments, 1);
   },
-  info(where, str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10) {
-    this._getLogger(where).info(str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10);
+  info(where, str) {
+    this._write(this.INFO, where, arguments, 1);
   },
-  debug(where, str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10) {
-    this._getLogger(where).debug(str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10);    
+  debug(where, str) {
+    this._write(this.DEBUG, where, arguments, 1);
   },
-  trace(where, str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10) {
-    this._getLogger(where).trace(str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10);
+  trace(where, str) {
+    this._write(this.TRACE, where, arguments, 1);
   }
 };
+// the levels are read from Java once
+log.ERROR = log.ScriptLogger.ERROR;
+log.WARN = log.ScriptLogger.WARN;
+log.INFO = log.ScriptLogger.INFO;
+log.DEBUG = log.ScriptLogger.DEBUG;
+log.TRACE = log.ScriptLogger.TRACE;
 
-var console = { 
-  log: (str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10) => {
-    log.info("context", str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10);
+var console = {
+  log(str) {
+    log._write(log.INFO, "context", arguments, 0);
   },
-  error: (str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10) => {
-    log.error("context", str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10);
+  error(str) {
+    log._write(log.ERROR, "context", arguments, 0);
   },
-  warn: (str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10) => {
-    log.warn("context", str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10);
+  warn(str) {
+    log._write(log.WARN, "context", arguments, 0);
   },
-  info: (str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10) => {
-    log.info("context", str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10);
+  info(str) {
+    log._write(log.INFO, "context", arguments, 0);
   },
-  debug: (str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10) => {
-    log.debug("context", str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10);
+  debug(str) {
+    log._write(log.DEBUG, "context", arguments, 0);
   },
-  trace: (str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10) => {
-    log.trace("context", str, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10);
+  trace(str) {
+    log._write(log.TRACE, "context", arguments, 0);
   }
 };
 
@@ -32,12 +32,17 @@ django_auth.prototype = {
     this.db = ctx.service(db_service);
 
     this.db_name = args.db_name || null;
-    var dbFactory = this.db.getFactory(this.db_name);
-    var conf = dbFactory.getConfiguration();
-    var filepath = path + "mapper/auth.xml";
-    var reader = new (Java.type("java.io.FileReader"))(filepath);
-    var builder = new (Java.type("org.apache.ibatis.builder.xml.XMLMapperBuilder"))(reader, conf, filepath, conf.getSqlFragments());
-    builder.parse();
+    // added once to the factory that all script contexts share
+    var me = this;
+    ctx.shared(`${serviceName}.mapper`, function() {
+      var dbFactory = me.db.getFactory(me.db_name, ctx);
+      var conf = dbFactory.getConfiguration();
+      var filepath = path + "mapper/auth.xml";
+      var reader = new (Java.type("java.io.FileReader"))(filepath);
+      var builder = new (Java.type("org.apache.ibatis.builder.xml.XMLMapperBuilder"))(reader, conf, filepath, conf.getSqlFragments());
+      builder.parse();
+      return true;
+    });
 
     ctx.addClasspath(path + 'dependency/');
     ctx.addClasspath(path + 'dependency/*.jar');
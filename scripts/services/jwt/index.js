@@ -43,6 +43,12 @@ jwt.prototype = {
     this.JsonWebSignature = Java.type("org.jose4j.jws.JsonWebSignature");
     this.AlgorithmIdentifiers = Java.type("org.jose4j.jws.AlgorithmIdentifiers");
     this.JwtConsumerBuilder = Java.type("org.jose4j.jwt.consumer.JwtConsumerBuilder");
+    this.USER = Java.type("my.com.solutionx.simplyscript.ScriptEngineInterface").USER;
+    // the same key object for every script context that sets up this service
+    var me = this;
+    this.key = ctx.shared(`${serviceName}.key`, function() {
+      return new me.HmacKey(me.secret);
+    });
 
     return {
       contextPrototype: this,
@@ -53,6 +59,9 @@ jwt.prototype = {
     return this._loggername;
   },
   preCall(ctx, e, action, args) {
+    // already authenticated by the web server ([web] jwt_verify)
+    if (ctx.req(this.USER) != null)
+      return;
     var headers = ctx.req("headers");
     if (headers == null)
       return;
@@ -66,7 +75,7 @@ jwt.prototype = {
       return;
     
     var token = token_array[1];
-    var key = new this.HmacKey(this.secret);
+    var key = this.key;
     var jwtConsumer = new this.JwtConsumerBuilder()
       .setRequireExpirationTime()
       .setAllowedClockSkewInSeconds(30)
@@ -114,7 +123,7 @@ jwt.prototype = {
     */
    claims.setClaim("data", args);
     
-    var key = new this.HmacKey(this.secret);
+    var key = this.key;
     var jws = new this.JsonWebSignature();
     jws.setHeader("typ", "JWT");
     jws.setPayload(claims.toJson());
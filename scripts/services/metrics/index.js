@@ -28,22 +28,40 @@ metrics.prototype = {
     this.db = ctx.service(db_service);
 
     this.db_name = args.db_name || null;
-    var dbFactory = this.db.getFactory(this.db_name);
-    var conf = dbFactory.getConfiguration();
-    // console.log("Database id: " + conf.	getDatabaseId());
-    var filepath = path + "mapper/metrics.xml";
-    var reader = new (Java.type("java.io.FileReader"))(filepath);
-    var builder = new (Java.type("org.apache.ibatis.builder.xml.XMLMapperBuilder"))(reader, conf, filepath, conf.getSqlFragments());
-    builder.parse();
-
     this.table_name = args.table_name || "metrics_stats";
-    var create_table = args.create_table || true;
-    if (create_table) {
-      this.db.update(this.db_name, "metrics.createMetricsTable", {
-          "table_name": this.table_name
-        }, ctx);
-      this.db.postCall(ctx);
-    }
+    // the mapper goes into the factory that all script contexts share, so
+    // it is added (and the table created) by the first context only
+    this.dbFactory = this.db.getFactory(this.db_name, ctx);
+    var me = this;
+    ctx.shared(`${serviceName}.setup`, function() {
+      var conf = me.dbFactory.getConfiguration();
+      // console.log("Database id: " + conf.	getDatabaseId());
+      var filepath = path + "mapper/metrics.xml";
+      var reader = new (Java.type("java.io.FileReader"))(filepath);
+      var builder = new (Java.type("org.apache.ibatis.builder.xml.XMLMapperBuilder"))(reader, conf, filepath, conf.getSqlFragments());
+      builder.parse();
+
+      var create_table = args.create_table || true;
+      if (create_table) {
+        me.db.update(me.db_name, "metrics.createMetricsTable", {
+            "table_name": me.table_name
+          }, ctx);
+        me.db.update(me.db_name, "metrics.addMinMaxColumns", {
+            "table_name": me.table_name
+          }, ctx);
+        me.db.postCall(ctx);
+      }
+      return true;
+    });
+
+    // timings are aggregated in memory and written in one batch per flush_seconds
+    this.aggregator = ctx.newMetricsAggregator({
+      name: serviceName,
+      flush_seconds: args.flush_seconds || 10,
+      max_names: args.max_names || 1000
+    }, function(rows) {
+      me.flush(rows);
+    });
 
     return {
       contextPrototype: this,
@@ -58,17 +76,29 @@ metrics.prototype = {
     ctx.req("metrics_start_time", (new Date()).getTime());
   },
   postCall(ctx, e) {
+    if (ctx.isWarmup())
+      return;
     var start_time = ctx.req("metrics_start_time");
     var end_time = (new Date()).getTime();
-    var time_taken_ms = end_time - start_time;
-    console.log("Start time: " + start_time + " End time: " + end_time + " Time taken: " + time_taken_ms);
-    var db = this.db.newDb(this.db_name, ctx);
-    db.update('metrics.updateMetrics', {
-      table_name: this.table_name,
-      name: ctx.getLoggerName(),
-      time_taken_ms: time_taken_ms
-    });
-    db.commit();
+    this.aggregator.record(ctx.getLoggerName(), end_time - start_time);
+  },
+  flush(rows) {
+    var ExecutorType = Java.type("org.apache.ibatis.session.ExecutorType");
+    var db = this.dbFactory.openSession(ExecutorType.BATCH);
+    try {
+      for (var i=0; i<rows.size(); i++) {
+        var row = rows.get(i);
+        row.put("table_name", this.table_name);
+        db.update('metrics.flushMetrics', row);
+      }
+      db.flushStatements();
+      db.commit();
+    } catch (e) {
+      db.rollback();
+      throw e;
+    } finally {
+      db.close();
+    }
   }
 };
 
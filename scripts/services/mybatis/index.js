@@ -28,10 +28,10 @@ mybatis.prototype = {
     log.info(this, "Service Name: {}, my path is: {}, args: {}", serviceName, path, args);
     ctx.addClasspath(path + 'dependency/');
     ctx.addClasspath(path + 'dependency/*.jar');
-    const FileReader = Java.type('java.io.FileReader');
-    this.configReader = new FileReader(`${config_path}/mybatis/environment.xml`);
+    this._serviceName = serviceName;
+    this.FileReader = Java.type('java.io.FileReader');
     this.properties = new (Java.type('java.util.Properties'))();
-    this.properties.load(new FileReader(`${config_path}/mybatis/datasource.properties`));
+    this.properties.load(new this.FileReader(`${config_path}/mybatis/datasource.properties`));
     this.dbFactories = {};
     this.factoryBuilder = Java.type('org.apache.ibatis.session.SqlSessionFactoryBuilder');
     this.default_db = args['default'] || null;
@@ -61,7 +61,7 @@ mybatis.prototype = {
 
       console.log("postInnerCall Cleaning up DB_NEW db: " + db + ":" + ctx.req("_dbConnNew"));
       try {
-        if (e != null)
+        if (e != null || ctx.isWarmup())
           db.rollback();
         else
           db.commit();
@@ -79,7 +79,7 @@ mybatis.prototype = {
         var db = ctx.req("_dbConnNew")[i];
         console.log("postCall Cleaning up DB_NEW db: " + db);
         try {
-          if (e != null)
+          if (e != null || ctx.isWarmup())
             db.rollback();
           else
             db.commit();
@@ -97,7 +97,7 @@ mybatis.prototype = {
         var db = ctx.req("_dbConn")[dbName];
         console.log("postCall Cleaning up DB db: " + db + ":" + dbName);
         try {
-          if (e != null)
+          if (e != null || ctx.isWarmup())
             db.rollback();
           else
             db.commit();
@@ -110,11 +110,21 @@ mybatis.prototype = {
       }
     }
   },
-  getFactory(dbName) {
+  // one factory (and connection pool) per database for all script contexts,
+  // however many of them set up this service
+  getFactory(dbName, ctx) {
     dbName = dbName || this.default_db;
     var factory = this.dbFactories[dbName];
     if (factory == null) {
-      factory = this.dbFactories[dbName] = (new this.factoryBuilder()).build(this.configReader, dbName, this.properties);
+      var me = this;
+      factory = this.dbFactories[dbName] = ctx.shared(`${this._serviceName}.${dbName}`, function() {
+        var reader = new me.FileReader(`${config_path}/mybatis/environment.xml`);
+        try {
+          return (new me.factoryBuilder()).build(reader, dbName, me.properties);
+        } finally {
+          reader.close();
+        }
+      });
     }
     return factory;
   },
@@ -133,7 +143,7 @@ mybatis.prototype = {
     if (ctx.req("_dbConn")[dbName])
       return ctx.req("_dbConn")[dbName];
 
-    var factory = this.getFactory(dbName);
+    var factory = this.getFactory(dbName, ctx);
     var db = ctx.req("_dbConn")[dbName] = factory.openSession();
     return db;
   },
@@ -149,7 +159,7 @@ mybatis.prototype = {
 
     dbName = dbName || this.default_db;
 
-    var factory = this.getFactory(dbName);
+    var factory = this.getFactory(dbName, ctx);
     var db = factory.openSession();
     ctx.req("_dbConnNew").push(db);
     return db;
@@ -166,6 +176,17 @@ mybatis.prototype = {
     var db = this.get(dbName || this.default_db, ctx);
     return db.selectCursor(scriptName, parameters);
   },
+  // cursor on a session of its own, which stays open after postCall until
+  // the response has been written from it, see ctx.stream
+  selectStream(dbName, scriptName, parameters, ctx) {
+    var db = this.getFactory(dbName || this.default_db, ctx).openSession();
+    try {
+      return ctx.stream(db.selectCursor(scriptName, parameters), db);
+    } catch (e) {
+      db.close();
+      throw e;
+    }
+  },
   insert(dbName, scriptName, parameters, ctx) {
     var db = this.get(dbName || this.default_db, ctx);
     return db.insert(scriptName, parameters);
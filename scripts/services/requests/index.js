@@ -48,9 +48,13 @@ requests.prototype = {
     }
   },
   get(args, ctx) {
+    if (ctx != null && ctx.isWarmup())
+      return null;
     return this.requests.get(args);
   },
   post(args, ctx) {
+    if (ctx != null && ctx.isWarmup())
+      return null;
     return this.requests.post(args);
   },
 };
@@ -1,21 +1,178 @@
 /* global Java */
 
-load(scripts_path + 'system/priority_list.js');
 (function() {
 
+// Per ctx object state that scripts must not reach, kept out of the object
+// itself so that the object can be frozen and reused across requests
+var privateState = new WeakMap();
+var callLogger = Java.type("org.slf4j.LoggerFactory").getLogger("context");
+var Files = Java.type("java.nio.file.Files");
+var Paths = Java.type("java.nio.file.Paths");
+var ResultStream = Java.type("my.com.solutionx.simplyscript.ResultStream");
+var ArrayList = Java.type("java.util.ArrayList");
+var HOOKS = ["preCall", "postCall", "preInnerCall", "postInnerCall"];
+// upper bound on resolved actions kept per context; unknown action names are
+// cached too, so the table is simply emptied when it grows past this
+var MAX_ACTIONS = 1024;
+// the hooks of one top level call in HOOK_SAMPLE (and of its inner calls) are
+// timed; a host call per hook on every call would cost more than most hooks
+var HOOK_SAMPLE = 16;
+var ANONYMOUS = Object.freeze({
+  "username": "anonymous",
+  "is_active": false,
+  "is_staff": false,
+  "is_superuser": false,
+  "is_anonymous": true
+});
+
 function ctxObject(argLocalContext) {
-  localContext = argLocalContext;
   this._callData = {
     "depth": -1,
     "stack": []
   };
-  user = {
-    "username": "anonymous",
-    "is_active": false,
-    "is_staff": false,
-    "is_superuser": false,
-    "is_anonymous": true
-  };
+  privateState.set(this, {
+    localContext: argLocalContext,
+    user: ANONYMOUS,
+    metrics: null,
+    debug: false,
+    hookGeneration: -1,
+    boundGeneration: -1,
+    hooks: {},
+    calls: 0,
+    timeHooks: false,
+    actionGeneration: -1,
+    actions: new Map()
+  });
+}
+
+// What this ctx_prototype runs for each hook in ScriptService.interceptors(),
+// by hook id: the function and this of a script service, or the uniqueid a
+// Java hook sets the user with. Kept here so that, when every script context
+// sets up its own services (context_affine), a context only calls its own
+// service objects and skips the script hooks of services it has not set up
+var boundHooks = {};
+// bumped whenever a hook is bound here, as binding the function of a hook
+// that another context added does not change the registry's generation
+var boundGeneration = 0;
+
+function state(ctx) {
+  return privateState.get(ctx);
+}
+
+// Called once per top level call: everything here would otherwise be a host
+// round trip on every (inner) call
+function refresh(s) {
+  s.metrics = s.localContext.metrics();
+  s.debug = callLogger.isDebugEnabled();
+  s.calls = (s.calls + 1) % HOOK_SAMPLE;
+  s.timeHooks = s.calls === 0;
+  var generation = s.localContext.moduleGeneration();
+  if (s.actionGeneration !== generation) {
+    s.actionGeneration = generation;
+    s.actions.clear();
+  }
+  var hookGeneration = s.localContext.hookGeneration();
+  if (s.hookGeneration !== hookGeneration || s.boundGeneration !== boundGeneration) {
+    s.hookGeneration = hookGeneration;
+    s.boundGeneration = boundGeneration;
+    for (var i=0; i<HOOKS.length; i++)
+      s.hooks[HOOKS[i]] = snapshot(s.localContext.hooks(HOOKS[i]), HOOKS[i]);
+  }
+}
+
+// The hooks of one chain (already sorted in Java) that this context runs
+function snapshot(chain, kind) {
+  var entries = [];
+  for (var i=0; i<chain.length; i++) {
+    var hook = chain[i];
+    var isJava = hook.getInterceptor() != null;
+    var bound = boundHooks[hook.getId()];
+    if (!isJava && bound == null)
+      continue;
+    entries.push({
+      hook: hook,
+      kind: kind,
+      java: isJava,
+      fn: isJava ? null : bound.fn,
+      "this": isJava ? null : bound['this'],
+      uniqueid: bound == null ? null : bound.uniqueid
+    });
+  }
+  return entries.length === 0 ? null : entries;
+}
+
+// Resolves "Module.method" to the module object and its function. Misses are
+// kept as well (with the error to raise) so repeated calls to unknown actions
+// do not go back to the module cache
+function resolve(s, action, ctx) {
+  var idx = action.lastIndexOf(".");
+  var module = action.substring(0, idx);
+  var method = action.substring(idx+1);
+  var handle;
+  var objModule = s.localContext.module(module, ctx);
+  if (objModule == null)
+    handle = { error: "Module not found: " + module };
+  else if (typeof objModule[method] !== "function")
+    handle = { error: "Action not found: " + action };
+  else
+    handle = { module: objModule, fn: objModule[method] };
+
+  if (s.actions.size >= MAX_ACTIONS)
+    s.actions.clear();
+  s.actions.set(action, handle);
+  return handle;
+}
+
+// Same fields as the error document of a single action
+function batchError(e) {
+  var result = { "success": false, "message": String(e) };
+  if (e != null && e.code != null)
+    result.code = String(e.code);
+  if (e != null && e.action != null)
+    result.action = String(e.action);
+  return result;
+}
+
+function runHooks(s, hooks, ctx, e, action, args, name) {
+  if (hooks == null)
+    return;
+  if (s.timeHooks) {
+    timeHooks(s, hooks, ctx, e, action, args, name);
+    return;
+  }
+  for (var i=0; i<hooks.length; i++)
+    runHook(s, hooks[i], ctx, e, action, args, name);
+}
+
+// Each hook is timed from the end of the one before it, so a chain costs one
+// host call per hook for its timing
+function timeHooks(s, hooks, ctx, e, action, args, name) {
+  var metrics = s.metrics;
+  var t = metrics.start();
+  for (var i=0; i<hooks.length; i++) {
+    runHook(s, hooks[i], ctx, e, action, args, name);
+    t = metrics.recordHook(hooks[i].hook, t);
+  }
+}
+
+function runHook(s, entry, ctx, e, action, args, name) {
+  try {
+    if (entry.java)
+      runJavaHook(s, entry, ctx, e, action, args);
+    else
+      entry.fn.call(entry['this'], ctx, e, action, args);
+  } catch (err) {
+    s.metrics.recordHookError(entry.hook);
+    console.log(name + " error: " + err);
+  }
+}
+
+// A user returned by the hook of a Java service becomes the user of the call
+// when the service is privileged, as with ctx.setUser
+function runJavaHook(s, entry, ctx, e, action, args) {
+  var user = entry.hook.intercept(entry.kind, s.localContext, e == null ? null : e, action, args);
+  if (user != null && entry.uniqueid != null)
+    ctx.setUser(s.localContext.view(user), entry.uniqueid);
 }
 
 ctxObject.prototype = {
@@ -25,11 +182,12 @@ ctxObject.prototype = {
     return "modules." + this._callData.stack[this._callData.stack.length-1];
   },
   getUser() {
-    return user;
+    return state(this).user;
   },
   setUser(argUser, uniqueid) {
-    if (localContext.isPrivileged(uniqueid))
-      user = argUser;
+    var s = state(this);
+    if (s.localContext.isPrivileged(uniqueid))
+      s.user = argUser;
     else
       raiseError("Caller does not have privilege to set context User", "E_NOPRIVILEGE_SETUSER");
   },
@@ -37,37 +195,50 @@ ctxObject.prototype = {
     var user = this.getUser();
     if (user == null || !user.is_superuser)
         raiseError("Not Authorized", "E_NOTAUTHORIZED", this.getLoggerName());
-    return localContext.system(name);
+    return state(this).localContext.system(name);
   },
   module(name) {
     var user = this.getUser();
     if (user == null || !user.is_superuser)
         raiseError("Not Authorized", "E_NOTAUTHORIZED", this.getLoggerName());
-    console.log("Trying to load module: " + name);
-    return localContext.module(name, this);
+    if (callLogger.isDebugEnabled())
+      callLogger.debug("Trying to load module: {}", name);
+    return state(this).localContext.module(name, this);
   },
   addClasspath(path) {
-    localContext.addClasspath(path);
+    state(this).localContext.addClasspath(path);
+  },
+  /**
+   * Returns the Java object shared by all script contexts under key,
+   * creating it with factory(key) on first use. For resources such as a
+   * SqlSessionFactory that must not be created once per context; factory
+   * must return a Java object.
+   */
+  shared(key, factory) {
+    return state(this).localContext.shared(key, factory);
+  },
+  newMetricsAggregator(config, sink) {
+    return state(this).localContext.newMetricsAggregator(config, sink);
   },
   app(key, value) {
     if (arguments.length > 1) { // is set
-      localContext.app(key, value);
+      state(this).localContext.app(key, value);
     } else { // is get
-      return  localContext.app(key);
+      return  state(this).localContext.app(key);
     }
   },
   cache(key, value) {
     if (arguments.length > 1) { // is set
-      localContext.cache(key, value);
+      state(this).localContext.cache(key, value);
     } else { // is get
-      return  localContext.cache(key);
+      return  state(this).localContext.cache(key);
     }
   },
   req(key, value) {
     if (arguments.length > 1) { // is set
-      localContext.req(key, value);
+      state(this).localContext.req(key, value);
     } else { // is get
-      return  localContext.req(key);
+      return  state(this).localContext.req(key);
     }
   },
   addReturnCommand(value) {
@@ -89,70 +260,121 @@ ctxObject.prototype = {
     }
     map[key] = value;
   },
+  /**
+   * Returns rows (a Java Iterable, e.g. a MyBatis Cursor) as a ResultStream
+   * that the response is written from row by row after the action returns.
+   * rows and resource (e.g. the SqlSession the cursor reads from) are closed
+   * when the request is done, whether or not the stream was returned.
+   */
+  stream(rows, resource) {
+    var stream = new ResultStream(rows, resource || null);
+    var streams = this.req(ResultStream.REQUEST_KEY);
+    if (streams == null) {
+      streams = new ArrayList();
+      this.req(ResultStream.REQUEST_KEY, streams);
+    }
+    streams.add(stream);
+    return stream;
+  },
   callDepth() {
     return this._callData.depth;
   },
+  isWarmup() {
+    var warmup_key = Java.type("my.com.solutionx.simplyscript.ScriptEngineInterface").WARMUP;
+    return this.req(warmup_key) == true;
+  },
   call(action, args) {
-    var idx = action.lastIndexOf(".");
-    if (idx === -1)
+    var s = state(this);
+    var callData = this._callData;
+    if (callData.depth < 0)
+      refresh(s);
+    var handle = s.actions.get(action);
+    if (handle === undefined && action.lastIndexOf(".") === -1)
       throw new Error("Invalid action format. Expected XXX.YYY");
 
-console.log(`Before Call: ${action} Depth: ${this._callData.depth} Call Stack length: ${this._callData.stack.length} ${localContext}`)
-    this._callData.depth += 1;
-    this._callData.stack.push(action);
-console.log(`Call: ${action} Depth: ${this._callData.depth} Call Stack length: ${this._callData.stack.length} ${localContext}`)
+    var metrics = s.metrics;
+    var start = metrics.start();
+    var failed = false;
+    callData.depth += 1;
+    callData.stack.push(action);
+    var inner = callData.depth > 0;
+    if (s.debug)
+      callLogger.debug("Call: {} Depth: {} Call Stack length: {}", action, callData.depth, callData.stack.length);
     try {
-      var preCall = this._callData.depth <= 0 ? localContext.system("preCall") : localContext.system("preInnerCall");
-      if (preCall !== null) {
-        for (var i=0; i<preCall.items.length; i++) {
-          try {
-            preCall.items[i].fn.call(preCall.items[i]['this'], this, null, action, args);
-          } catch (e) {
-            console.log("preCall error: " + e);
-          }
-        }
-      }
-
-      var module = action.substring(0, idx);
-      var method = action.substring(idx+1);
+      runHooks(s, inner ? s.hooks.preInnerCall : s.hooks.preCall, this, null, action, args, "preCall");
 
-      var objModule = localContext.module(module, this);
-      if (objModule == null)
-        throw new Error("Module not found: " + module);
+      if (handle === undefined)
+        handle = resolve(s, action, this);
+      if (handle.fn === undefined)
+        throw new Error(handle.error);
 
-      var ret = objModule[method](args, this);
-
-      var postCall = this._callData.depth <= 0 ? localContext.system("postCall") : localContext.system("postInnerCall");
-      if (postCall !== null) {
-        for (var i=0; i<postCall.items.length; i++) {
-          try {
-            postCall.items[i].fn.call(postCall.items[i]['this'], this, null, action, args);
-          } catch (e) {
-            console.log("postCall error: " + e);
-          }
-        }
-      }
+      var ret = handle.fn.call(handle.module, args, this);
 
+      runHooks(s, inner ? s.hooks.postInnerCall : s.hooks.postCall, this, null, action, args, "postCall");
       return ret;
     } catch (e) {
-      var postCall = this._callData.depth <= 0 ? localContext.system("postCall") : localContext.system("postInnerCall");
-      if (postCall !== null) {
-        for (var i=0; i<postCall.items.length; i++) {
-          try {
-            postCall.items[i].fn.call(postCall.items[i]['this'], this, e, action, args);
-          } catch (e) {
-            console.log("postCall error: " + e);
-          }
+      failed = true;
+      runHooks(s, inner ? s.hooks.postInnerCall : s.hooks.postCall, this, e, action, args, "postCall");
+      throw e;
+    } finally {
+      // only resolved actions get their own timer, see ActionMetrics.UNKNOWN
+      metrics.record(handle !== undefined && handle.fn !== undefined ? action : "_unknown", inner, start, failed);
+      callData.depth -= 1;
+      callData.stack.pop();
+    }
+  },
+  /**
+   * Runs actions[i] with argsList[i] in order, as inner calls of one top
+   * level "_batch" call, so preCall hooks (e.g. JWT) run once. With
+   * transaction the postCall hooks also run once, at the end, and get the
+   * first error so that the DB sessions shared by all actions are committed
+   * or rolled back together; otherwise they run after every action to end
+   * its unit of work. Without continueOnError the actions after a failed
+   * one are skipped. Returns one result document per action.
+   */
+  batch(actions, argsList, transaction, continueOnError) {
+    var s = state(this);
+    var callData = this._callData;
+    if (callData.depth >= 0)
+      throw new Error("Batch can only be run as a top level call");
+    refresh(s);
+    var metrics = s.metrics;
+    var start = metrics.start();
+    var results = [];
+    var failure = null;
+    callData.depth = 0;
+    callData.stack.push("_batch");
+    try {
+      runHooks(s, s.hooks.preCall, this, null, "_batch", argsList, "preCall");
+      for (var i=0; i<actions.length; i++) {
+        if (failure != null && !continueOnError) {
+          results.push({ "success": false, "skipped": true, "message": "Skipped after an earlier action failed" });
+          continue;
         }
+        var error = null;
+        try {
+          var ret = this.call(actions[i], argsList[i]);
+          results.push(ret == null ? { "success": true } : { "success": true, "data": ret });
+        } catch (e) {
+          error = e;
+          if (failure == null)
+            failure = e;
+          results.push(batchError(e));
+        }
+        if (!transaction)
+          runHooks(s, s.hooks.postCall, this, error, actions[i], argsList[i], "postCall");
       }
-      throw e;
+      if (transaction)
+        runHooks(s, s.hooks.postCall, this, failure, "_batch", argsList, "postCall");
+      return results;
     } finally {
-      this._callData.depth -= 1;
-      this._callData.stack.pop();
+      metrics.record("_batch", false, start, failure != null);
+      callData.depth = -1;
+      callData.stack.pop();
     }
   },
   service(name) {
-    return localContext.service(name, this);
+    return state(this).localContext.service(name, this);
   }
 /*
   module(name) {
@@ -175,12 +397,21 @@ ctxObject.serviceSetup = function(serviceName, system, uniqueid, ctx) {
   }
 
   var scriptName = serviceName;
+  var mappedScript = null;
   if (this._config.service.map != null) {
-    var mappedScript = this._config.service.map[serviceName];
+    mappedScript = this._config.service.map[serviceName];
     if (mappedScript != null)
       scriptName = mappedScript;
   }
 
+  // a service mapped to a script is always that script
+  if (mappedScript == null) {
+    var localContext = state(ctx).localContext;
+    var provider = localContext.serviceProvider(serviceName);
+    if (provider != null)
+      return javaServiceSetup(localContext, serviceName, provider, localContext.javaService(provider), uniqueid);
+  }
+
   var setupData = null;
   var path = `${this._config.service.path}/${scriptName}/`;
   var serviceConstructor = load(path + 'index.js');
@@ -205,24 +436,40 @@ ctxObject.serviceSetup = function(serviceName, system, uniqueid, ctx) {
     ctxObject.prototype[serviceName] = setupData.contextPrototype;
   }
 
-  var keys = ["preCall", "postCall", "preInnerCall", "postInnerCall"];
-  for (var i=0; i<keys.length; i++) {
-    var call = setupData[keys[i]];
-    if (call != null) {
-      var call_array = system[keys[i]];
-      if (call_array == null) {
-        // if post create ascending list (call low priority to high priority, otherwise descending
-        call_array = system[keys[i]] = new PriorityList(keys[i].startsWith("post"));
-      }
-      if (!("this" in call)) {
-        call['this'] = service;
-      }
-      call_array.add(call);
-    }
+  var localContext = state(ctx).localContext;
+  for (var i=0; i<HOOKS.length; i++) {
+    var call = setupData[HOOKS[i]];
+    if (call != null)
+      addHook(localContext, serviceName, HOOKS[i], call, service);
   }
   return service;
 };
 
+// call is {fn, priority (default 5000), inner, this (default the service)};
+// with inner a preCall/postCall hook also runs for inner calls
+function addHook(localContext, serviceName, kind, call, service) {
+  var priority = call.priority == null ? 5000 : call.priority;
+  var hook = localContext.addHook(serviceName, kind, priority, call.inner === true);
+  boundHooks[hook.getId()] = { fn: call.fn, "this": "this" in call ? call['this'] : service };
+  boundGeneration++;
+}
+
+// A service from a Java ScriptServiceProvider: the object its setup returned
+// is what scripts call, and each of its hooks is a single call into Java
+function javaServiceSetup(localContext, serviceName, provider, service, uniqueid) {
+  ctxObject.prototype[serviceName] = service;
+  var hooks = provider.getHooks();
+  for (var i=0; i<HOOKS.length; i++) {
+    var priority = hooks.get(HOOKS[i]);
+    if (priority != null) {
+      var hook = localContext.addProviderHook(serviceName, HOOKS[i], priority, provider);
+      boundHooks[hook.getId()] = { uniqueid: uniqueid };
+      boundGeneration++;
+    }
+  }
+  return service;
+}
+
 ctxObject.moduleSetup = function (moduleName, system, ctx) {
   if (this._config.module.deny != null) {
     if (moduleName in this._config.module.deny) {
@@ -243,6 +490,8 @@ ctxObject.moduleSetup = function (moduleName, system, ctx) {
       scriptName = mappedScript;
   }
   var path = `${this._config.module.path}/${scriptName}/`;
+  if (!Files.exists(Paths.get(path + 'index.js')))
+    return null;
   var module = load(path + 'index.js');
   if ("_init" in module)
     module._init();
@@ -296,6 +545,14 @@ function newContext(localContext) {
   var o = new ctxObject(localContext);
   return Object.freeze(o);
 }
-return [ctxObject, newContext];
+
+// Prepares a context's ctx object for the next request instead of building a
+// new one; user is the request's ScriptEngineInterface.USER, if any
+function resetContext(ctx, user) {
+  ctx._callData.depth = -1;
+  ctx._callData.stack.length = 0;
+  state(ctx).user = user != null ? user : ANONYMOUS;
+}
+return [ctxObject, newContext, resetContext];
 
 });
\ No newline at end of file
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Per action latency histograms for top level and inner ctx.call, error
+ * counts, the time spent in each service hook and script context claim wait
+ * per pool, kept in memory and rendered in the Prometheus text format.
+ *
+ * Recording is lock free (HdrHistogram Recorder plus LongAdder). Quantiles
+ * are computed over the interval since the previous scrape, while _count,
+ * _sum and the error counters are cumulative.
+ *
+ * Scripts get the start time from start() as a double of nanoseconds since
+ * this instance was created, so it survives the trip through JavaScript
+ * numbers without losing precision.
+ *
+ * Actions come from clients, so memory is bounded by max_names distinct
+ * actions per kind of call: calls of unknown actions (see ctx_prototype) and
+ * of actions over the limit are recorded under UNKNOWN.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+public class ActionMetrics {
+    public static final ActionMetrics DISABLED = new ActionMetrics(false);
+    public static final String UNKNOWN = "_unknown";
+    static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    static class Timer {
+        final Recorder recorder = new Recorder(3);
+        final LongAdder count = new LongAdder();
+        final LongAdder sumNanos = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        Histogram interval = null;
+
+        void record(long nanos, boolean failed) {
+            recorder.recordValue(Math.max(0, nanos));
+            count.increment();
+            sumNanos.add(nanos);
+            if (failed)
+                errors.increment();
+        }
+
+        synchronized Histogram interval() {
+            interval = recorder.getIntervalHistogram(interval);
+            return interval;
+        }
+    }
+
+    final boolean enabled;
+    final long origin = System.nanoTime();
+    final Map<String, Timer> calls = new ConcurrentHashMap<>();
+    final Map<String, Timer> innerCalls = new ConcurrentHashMap<>();
+    // claim wait by context pool, timeouts are counted as the timer's errors
+    final Map<String, Timer> claimWaits = new ConcurrentHashMap<>();
+    volatile int maxNames = 1000;
+
+    public ActionMetrics() {
+        this(true);
+    }
+
+    ActionMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setMaxNames(int maxNames) {
+        this.maxNames = maxNames;
+    }
+
+    public double start() {
+        return System.nanoTime() - origin;
+    }
+
+    public void record(String action, boolean inner, double start, boolean failed) {
+        if (!enabled)
+            return;
+        long nanos = System.nanoTime() - origin - (long)start;
+        Map<String, Timer> timers = inner ? innerCalls : calls;
+        Timer timer = timers.get(action);
+        if (timer == null) {
+            if (timers.size() >= maxNames)
+                action = UNKNOWN;
+            timer = timers.computeIfAbsent(action, k -> new Timer());
+        }
+        timer.record(nanos, failed);
+    }
+
+    /**
+     * Records a hook that ran from start and returns the time now, which is
+     * the start of the next hook in the chain. Scripts time the hooks of a
+     * sample of the calls only, while every error is counted.
+     */
+    public double recordHook(Interceptors.Hook hook, double start) {
+        double now = start();
+        if (enabled)
+            hook.timer.record((long)now - (long)start, false);
+        return now;
+    }
+
+    public void recordHookError(Interceptors.Hook hook) {
+        if (enabled)
+            hook.timer.errors.increment();
+    }
+
+    public void recordClaimWait(String pool, long nanos, boolean timedOut) {
+        if (!enabled)
+            return;
+        claimWait(pool).record(nanos, timedOut);
+    }
+
+    Timer claimWait(String pool) {
+        Timer timer = claimWaits.get(pool);
+        if (timer == null)
+            timer = claimWaits.computeIfAbsent(pool, k -> new Timer());
+        return timer;
+    }
+
+    public String toPrometheus(Collection<ScriptContextPool> pools) {
+        return toPrometheus(pools, Collections.emptyList());
+    }
+
+    public String toPrometheus(Collection<ScriptContextPool> pools, Collection<Interceptors.Hook> hooks) {
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("# HELP simplyscript_action_duration_seconds Duration of ctx.call by action\n");
+        sb.append("# TYPE simplyscript_action_duration_seconds summary\n");
+        appendTimers(sb, "top", calls);
+        appendTimers(sb, "inner", innerCalls);
+
+        sb.append("# HELP simplyscript_action_errors_total Failed ctx.call by action\n");
+        sb.append("# TYPE simplyscript_action_errors_total counter\n");
+        appendErrors(sb, "top", calls);
+        appendErrors(sb, "inner", innerCalls);
+
+        sb.append("# HELP simplyscript_hook_duration_seconds Duration of a service hook in a sample of ctx.call\n");
+        sb.append("# TYPE simplyscript_hook_duration_seconds summary\n");
+        for (Interceptors.Hook hook : hooks)
+            appendTimer(sb, "simplyscript_hook_duration_seconds", hookLabels(hook), hook.timer);
+
+        sb.append("# HELP simplyscript_hook_errors_total Service hooks that threw\n");
+        sb.append("# TYPE simplyscript_hook_errors_total counter\n");
+        for (Interceptors.Hook hook : hooks) {
+            sb.append("simplyscript_hook_errors_total{").append(hookLabels(hook)).append("} ")
+                    .append(hook.timer.errors.sum()).append('\n');
+        }
+
+        sb.append("# HELP simplyscript_claim_wait_seconds Time spent waiting for a script context\n");
+        sb.append("# TYPE simplyscript_claim_wait_seconds summary\n");
+        for (ScriptContextPool pool : pools)
+            appendTimer(sb, "simplyscript_claim_wait_seconds", poolLabel(pool), claimWait(pool.getName()));
+
+        sb.append("# HELP simplyscript_claim_timeouts_total Claims that timed out\n");
+        sb.append("# TYPE simplyscript_claim_timeouts_total counter\n");
+        for (ScriptContextPool pool : pools)
+            appendGauge(sb, "simplyscript_claim_timeouts_total", pool, claimWait(pool.getName()).errors.sum());
+
+        sb.append("# TYPE simplyscript_pool_size gauge\n");
+        for (ScriptContextPool pool : pools)
+            appendGauge(sb, "simplyscript_pool_size", pool, pool.getTargetSize());
+        sb.append("# TYPE simplyscript_pool_in_use gauge\n");
+        for (ScriptContextPool pool : pools)
+            appendGauge(sb, "simplyscript_pool_in_use", pool, pool.getInUse());
+        sb.append("# TYPE simplyscript_pool_waiting gauge\n");
+        for (ScriptContextPool pool : pools)
+            appendGauge(sb, "simplyscript_pool_waiting", pool, pool.getWaiting());
+        return sb.toString();
+    }
+
+    void appendTimers(StringBuilder sb, String call, Map<String, Timer> timers) {
+        for (Map.Entry<String, Timer> entry : new TreeMap<>(timers).entrySet()) {
+            String labels = "action=\"" + escape(entry.getKey()) + "\",call=\"" + call + "\"";
+            appendTimer(sb, "simplyscript_action_duration_seconds", labels, entry.getValue());
+        }
+    }
+
+    void appendErrors(StringBuilder sb, String call, Map<String, Timer> timers) {
+        for (Map.Entry<String, Timer> entry : new TreeMap<>(timers).entrySet()) {
+            sb.append("simplyscript_action_errors_total{action=\"").append(escape(entry.getKey()))
+                    .append("\",call=\"").append(call).append("\"} ")
+                    .append(entry.getValue().errors.sum()).append('\n');
+        }
+    }
+
+    String hookLabels(Interceptors.Hook hook) {
+        return "service=\"" + escape(hook.getService()) + "\",hook=\"" + hook.getKind() + "\"";
+    }
+
+    String poolLabel(ScriptContextPool pool) {
+        return "pool=\"" + pool.getName() + "\"";
+    }
+
+    void appendGauge(StringBuilder sb, String name, ScriptContextPool pool, long value) {
+        sb.append(name).append('{').append(poolLabel(pool)).append("} ").append(value).append('\n');
+    }
+
+    void appendTimer(StringBuilder sb, String name, String labels, Timer timer) {
+        Histogram histogram = timer.interval();
+        String separator = labels.isEmpty() ? "" : ",";
+        for (double quantile : QUANTILES) {
+            sb.append(name).append('{').append(labels).append(separator)
+                    .append("quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(histogram.getTotalCount() == 0 ? 0 : histogram.getValueAtPercentile(quantile * 100)))
+                    .append('\n');
+        }
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        sb.append(name).append("_count").append(braces).append(' ').append(timer.count.sum()).append('\n');
+        sb.append(name).append("_sum").append(braces).append(' ').append(seconds(timer.sumNanos.sum())).append('\n');
+    }
+
+    static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
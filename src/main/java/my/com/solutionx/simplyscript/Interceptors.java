@@ -0,0 +1,191 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The hooks that ctx.call runs around every call, registered by services
+ * (preCall, postCall, preInnerCall, postInnerCall in the object _setup
+ * returns, or ScriptServiceProvider.getHooks) or by Java code through
+ * ScriptService.interceptors().
+ *
+ * Each hook kind has an immutable array sorted once when a hook is added:
+ * pre hooks from the highest priority to the lowest, post hooks in the
+ * reverse order. A preCall/postCall hook only runs for top level calls
+ * unless it is added with inner, in which case it also runs for inner calls
+ * as one hook (one position, one timer) rather than being registered twice.
+ *
+ * A hook is either an Interceptor, which every script context calls, or a
+ * script function that stays in the ctx_prototype that added it; with
+ * context_affine every context adds its own function for the same hook.
+ * Scripts snapshot the arrays again when generation() changes.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+public class Interceptors {
+    public static final String[] KINDS = {
+        ScriptServiceProvider.PRE_CALL, ScriptServiceProvider.POST_CALL,
+        ScriptServiceProvider.PRE_INNER_CALL, ScriptServiceProvider.POST_INNER_CALL
+    };
+    static final Hook[] NONE = new Hook[0];
+
+    @FunctionalInterface
+    public interface Interceptor {
+        /**
+         * Runs for a call of action; kind is the chain being run (e.g.
+         * preInnerCall for an inner hook added as preCall). error is the
+         * script error of a failed call in the post hooks, otherwise null.
+         */
+        public Object intercept(String kind, ScriptContextInterface context, Object error, String action, Object args) throws Exception;
+    }
+
+    public static class Hook {
+        final String service;
+        final String kind;
+        final int priority;
+        final boolean inner;
+        final Interceptor interceptor;
+        final int order;
+        final ActionMetrics.Timer timer = new ActionMetrics.Timer();
+
+        Hook(String service, String kind, int priority, boolean inner, Interceptor interceptor, int order) {
+            this.service = service;
+            this.kind = kind;
+            this.priority = priority;
+            this.inner = inner;
+            this.interceptor = interceptor;
+            this.order = order;
+        }
+
+        public String getId() {
+            return service + "." + kind;
+        }
+
+        public String getService() {
+            return service;
+        }
+
+        public String getKind() {
+            return kind;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public boolean isInner() {
+            return inner;
+        }
+
+        /**
+         * Null for a script function.
+         */
+        public Interceptor getInterceptor() {
+            return interceptor;
+        }
+
+        public Object intercept(String kind, ScriptContextInterface context, Object error, String action, Object args) throws Exception {
+            return interceptor.intercept(kind, context, error, action, args);
+        }
+
+        boolean sameAs(int priority, boolean inner, Interceptor interceptor) {
+            return this.priority == priority && this.inner == inner
+                    && (this.interceptor == null) == (interceptor == null);
+        }
+    }
+
+    static final Comparator<Hook> PRE_ORDER = Comparator.comparingInt((Hook hook) -> -hook.priority)
+            .thenComparingInt(hook -> hook.order);
+
+    final Map<String, Hook> hooks = new LinkedHashMap<>();
+    final AtomicInteger generation = new AtomicInteger();
+    volatile Hook[][] chains = {NONE, NONE, NONE, NONE};
+    int order = 0;
+
+    static int index(String kind) {
+        for (int i=0; i<KINDS.length; i++) {
+            if (KINDS[i].equals(kind))
+                return i;
+        }
+        throw new IllegalArgumentException("Unknown hook: " + kind);
+    }
+
+    /**
+     * Adds the hook of service for kind, or replaces the one it added
+     * before. interceptor is null for a script function. Adding the same
+     * hook again (every context_affine context sets the service up) returns
+     * the existing one, with its timer.
+     */
+    public synchronized Hook add(String service, String kind, int priority, boolean inner, Interceptor interceptor) {
+        index(kind);
+        String id = service + "." + kind;
+        Hook hook = hooks.get(id);
+        if (hook != null && hook.sameAs(priority, inner, interceptor))
+            return hook;
+        hook = new Hook(service, kind, priority, inner, interceptor, order++);
+        hooks.put(id, hook);
+        build();
+        return hook;
+    }
+
+    public Hook add(String service, String kind, int priority, ScriptServiceProvider provider) {
+        return add(service, kind, priority, false, provider::hook);
+    }
+
+    void build() {
+        Hook[][] built = new Hook[KINDS.length][];
+        for (int i=0; i<KINDS.length; i++) {
+            List<Hook> chain = new ArrayList<>();
+            boolean innerChain = i >= 2;
+            for (Hook hook : hooks.values()) {
+                if (hook.kind.equals(KINDS[i]) || (innerChain && hook.inner && hook.kind.equals(KINDS[i - 2])))
+                    chain.add(hook);
+            }
+            chain.sort(KINDS[i].startsWith("post") ? PRE_ORDER.reversed() : PRE_ORDER);
+            built[i] = chain.isEmpty() ? NONE : chain.toArray(NONE);
+        }
+        chains = built;
+        generation.incrementAndGet();
+    }
+
+    /**
+     * The hooks that run for kind, in the order they run. Not to be modified.
+     */
+    public Hook[] chain(String kind) {
+        return chains[index(kind)];
+    }
+
+    public int generation() {
+        return generation.get();
+    }
+
+    public synchronized Collection<Hook> hooks() {
+        return new ArrayList<>(hooks.values());
+    }
+
+    public synchronized void clear() {
+        hooks.clear();
+        order = 0;
+        build();
+    }
+}
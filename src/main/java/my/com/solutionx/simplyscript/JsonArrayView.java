@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * List view of a parsed JSON array, the counterpart of JsonObjectView:
+ * elements are converted when read and the first modification copies them
+ * into an ArrayList.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+public abstract class JsonArrayView extends AbstractList<Object> implements RandomAccess {
+    protected final ArrayNode node;
+    Object[] views = null;
+    List<Object> elements = null;
+
+    protected JsonArrayView(ArrayNode node) {
+        this.node = node;
+    }
+
+    /**
+     * The engine's view of a nested object or array.
+     */
+    protected abstract Object view(JsonNode value);
+
+    @Override
+    public Object get(int index) {
+        if (elements != null)
+            return elements.get(index);
+        JsonNode value = node.get(index);
+        if (value == null)
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + node.size());
+        if (!value.isContainerNode())
+            return JsonObjectView.scalar(value);
+        if (views == null)
+            views = new Object[node.size()];
+        if (views[index] == null)
+            views[index] = view(value);
+        return views[index];
+    }
+
+    @Override
+    public int size() {
+        return elements != null ? elements.size() : node.size();
+    }
+
+    @Override
+    public Object set(int index, Object element) {
+        return modifiable().set(index, element);
+    }
+
+    @Override
+    public void add(int index, Object element) {
+        modifiable().add(index, element);
+    }
+
+    @Override
+    public Object remove(int index) {
+        return modifiable().remove(index);
+    }
+
+    List<Object> modifiable() {
+        if (elements == null) {
+            List<Object> copy = new ArrayList<>(node.size());
+            for (int i=0; i<node.size(); i++)
+                copy.add(get(i));
+            elements = copy;
+        }
+        return elements;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Map view of a parsed JSON object, used to hand request arguments to
+ * scripts without converting the whole body first. A member is converted
+ * when it is read: scalars to String, Integer, Long, Double or Boolean as
+ * ObjectMapper.readValue would, objects and arrays to further views that
+ * the engine creates (see view), which are kept so that they read the same
+ * each time. The first put or remove copies the top level members into a
+ * LinkedHashMap; nested members stay views.
+ *
+ * Being a Map, the view can be passed on to Java code (e.g. as MyBatis
+ * parameters) and is serialized by Jackson like one.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+public abstract class JsonObjectView extends AbstractMap<String, Object> {
+    protected final ObjectNode node;
+    Map<String, Object> views = null;
+    Map<String, Object> members = null;
+
+    protected JsonObjectView(ObjectNode node) {
+        this.node = node;
+    }
+
+    /**
+     * The engine's view of a nested object or array.
+     */
+    protected abstract Object view(JsonNode value);
+
+    public static Object scalar(JsonNode value) {
+        switch (value.getNodeType()) {
+            case STRING:
+                return value.textValue();
+            case NUMBER:
+                return value.numberValue();
+            case BOOLEAN:
+                return value.booleanValue();
+            case BINARY:
+            case POJO:
+                return value.asText();
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (members != null)
+            return members.get(key);
+        if (!(key instanceof String))
+            return null;
+        if (views != null) {
+            Object converted = views.get(key);
+            if (converted != null)
+                return converted;
+        }
+        JsonNode value = node.get((String)key);
+        if (value == null)
+            return null;
+        if (!value.isContainerNode())
+            return scalar(value);
+        if (views == null)
+            views = new HashMap<>();
+        Object converted = view(value);
+        views.put((String)key, converted);
+        return converted;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (members != null)
+            return members.containsKey(key);
+        return key instanceof String && node.has((String)key);
+    }
+
+    @Override
+    public int size() {
+        return members != null ? members.size() : node.size();
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        return modifiable().put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return modifiable().remove(key);
+    }
+
+    Map<String, Object> modifiable() {
+        if (members == null) {
+            Map<String, Object> copy = new LinkedHashMap<>();
+            Iterator<String> names = node.fieldNames();
+            while (names.hasNext()) {
+                String name = names.next();
+                copy.put(name, get(name));
+            }
+            members = copy;
+        }
+        return members;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        if (members != null)
+            return members.entrySet();
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                Iterator<String> names = node.fieldNames();
+                return new Iterator<Entry<String, Object>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return names.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        String name = names.next();
+                        return new SimpleImmutableEntry<>(name, get(name));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return node.size();
+            }
+        };
+    }
+}
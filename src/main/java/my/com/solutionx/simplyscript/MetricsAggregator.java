@@ -0,0 +1,162 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory count/sum/min/max per name, flushed to a Sink in one batch per
+ * interval by a background thread, so that services like metrics do not
+ * write to their store on the request path.
+ *
+ * Memory is bounded by max_names distinct names per interval; values for
+ * further names are dropped and counted. The sink runs while holding a
+ * claimed script context, like any other script work. A final flush is done
+ * when the ScriptService shuts down.
+ *
+ * When every script context sets up its own services, each adds its sink
+ * (see addSink) and a flush calls the one of the context it claimed, since a
+ * script function can only run in its own context.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+public class MetricsAggregator implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsAggregator.class);
+
+    public interface Sink {
+        void flush(List<Map<String, Object>> rows) throws Exception;
+    }
+
+    static class Stats {
+        long count = 0;
+        double sum = 0;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        boolean closed = false;
+    }
+
+    final ScriptService scriptService;
+    final Sink sink;
+    final Map<ScriptContextInterface, Sink> sinks = Collections.synchronizedMap(new WeakHashMap<>());
+    final int maxNames;
+    final Map<String, Stats> current = new ConcurrentHashMap<>();
+    final LongAdder dropped = new LongAdder();
+    final ScheduledExecutorService flusher;
+    long intervalStart = System.currentTimeMillis();
+
+    public MetricsAggregator(ScriptService scriptService, Map<String, Object> config, Sink sink) {
+        this.scriptService = scriptService;
+        this.sink = sink;
+        maxNames = Integer.valueOf(String.valueOf(config.getOrDefault("max_names", "1000")));
+        long flushMillis = (long)(Double.valueOf(String.valueOf(config.getOrDefault("flush_seconds", "10"))) * 1000);
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "SimplyScript-MetricsFlush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void addSink(ScriptContextInterface owner, Sink sink) {
+        sinks.put(owner, sink);
+    }
+
+    public void record(String name, double value) {
+        while (true) {
+            Stats stats = current.get(name);
+            if (stats == null) {
+                if (current.size() >= maxNames) {
+                    dropped.increment();
+                    return;
+                }
+                stats = current.computeIfAbsent(name, k -> new Stats());
+            }
+            synchronized (stats) {
+                // closed means flush() already took it, so start the next interval's entry
+                if (!stats.closed) {
+                    stats.count++;
+                    stats.sum += value;
+                    stats.min = Math.min(stats.min, value);
+                    stats.max = Math.max(stats.max, value);
+                    return;
+                }
+            }
+        }
+    }
+
+    List<Map<String, Object>> drain() {
+        long start = intervalStart;
+        long end = System.currentTimeMillis();
+        intervalStart = end;
+        List<Map<String, Object>> rows = new ArrayList<>(current.size());
+        for (String name : current.keySet()) {
+            Stats stats = current.remove(name);
+            if (stats == null)
+                continue;
+            synchronized (stats) {
+                stats.closed = true;
+            }
+            Map<String, Object> row = new HashMap<>();
+            row.put("name", name);
+            row.put("call_count", stats.count);
+            row.put("total", stats.sum);
+            row.put("min", stats.min);
+            row.put("max", stats.max);
+            row.put("interval_start", start);
+            row.put("interval_end", end);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    public synchronized void flush() {
+        long droppedCount = dropped.sumThenReset();
+        if (droppedCount > 0)
+            logger.warn("Dropped {} metric values over the limit of {} names", droppedCount, maxNames);
+        List<Map<String, Object>> rows = drain();
+        if (rows.isEmpty())
+            return;
+
+        PoolableScriptContext scriptContext = null;
+        try {
+            scriptContext = scriptService.claimScriptContext();
+            sinks.getOrDefault(scriptContext.getScriptContext(), sink).flush(rows);
+        } catch (Exception e) {
+            logger.error("Error flushing {} metric rows, rows discarded", rows.size(), e);
+        } finally {
+            if (scriptContext != null)
+                scriptContext.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdownNow();
+        flush();
+    }
+}
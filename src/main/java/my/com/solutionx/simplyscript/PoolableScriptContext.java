@@ -22,6 +22,10 @@ import stormpot.Slot;
 public class PoolableScriptContext extends BasePoolable {
     ScriptContextInterface ctx = null;
     ScriptEngineInterface global = null;
+    ScriptContextPool claimedFrom = null;
+    // priority gates of claimedFrom held by this claim
+    boolean claimedNormal = false;
+    boolean claimedLow = false;
 
     PoolableScriptContext(ScriptEngineInterface global, Slot slot) throws ScriptException {
         super(slot);
@@ -31,8 +35,20 @@ public class PoolableScriptContext extends BasePoolable {
         ctx.init();
     }
 
+    PoolableScriptContext(ScriptEngineInterface global, Slot slot, ScriptContextInterface ctx) {
+        super(slot);
+        this.global = global;
+        this.ctx = ctx;
+    }
+
     @Override
     public void release() {
+        if (claimedFrom != null) {
+            claimedFrom.released(this);
+            claimedFrom = null;
+            claimedNormal = false;
+            claimedLow = false;
+        }
         ctx.recycle();
         super.release();
     }
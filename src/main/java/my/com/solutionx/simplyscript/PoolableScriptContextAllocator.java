@@ -16,7 +16,20 @@
 package my.com.solutionx.simplyscript;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.script.ScriptException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import stormpot.Allocator;
 import stormpot.Slot;
 
@@ -25,15 +38,143 @@ import stormpot.Slot;
  * @author kokhoor
  */
 public class PoolableScriptContextAllocator implements Allocator<PoolableScriptContext> {
+    private static final Logger logger = LoggerFactory.getLogger(PoolableScriptContextAllocator.class);
+    static final long SHUTDOWN_WAIT_SECONDS = 10;
+
     ScriptEngineInterface global;
+    List<Map<String, Object>> warmup = null;
+    int warmupIterations = 1;
+    final BlockingQueue<Future<ScriptContextInterface>> prebuilt = new LinkedBlockingQueue<>();
+    ExecutorService builder = null;
 
     public PoolableScriptContextAllocator(ScriptEngineInterface global) throws IOException, ScriptException {
         this.global = global;
     }
     
+    public void setWarmup(List<Map<String, Object>> warmup, int iterations) {
+        this.warmup = warmup;
+        this.warmupIterations = iterations;
+    }
+
+    /**
+     * Stormpot allocates on a single thread, so the first contexts are built
+     * ahead of time on several threads and allocate() takes them as they
+     * complete. Warm-up only runs on the builder threads when the engine can
+     * run scripts concurrently; otherwise it stays on the allocator thread.
+     */
+    public void prebuild(int count, int threads) {
+        if (count <= 0 || threads <= 1)
+            return;
+
+        long start = System.nanoTime();
+        AtomicInteger remaining = new AtomicInteger(count);
+        AtomicInteger counter = new AtomicInteger();
+        builder = Executors.newFixedThreadPool(Math.min(count, threads), r -> {
+            Thread thread = new Thread(r, "SimplyScript-ContextBuilder-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i=0; i<count; i++) {
+            prebuilt.add(builder.submit(() -> {
+                try {
+                    ScriptContextInterface ctx = global.getScriptContext();
+                    ctx.init();
+                    if (global.isMultiThreaded())
+                        warmup(ctx);
+                    return ctx;
+                } finally {
+                    if (remaining.decrementAndGet() == 0)
+                        logger.info("Built {} script contexts in {} ms on {} threads", count,
+                                (System.nanoTime() - start) / 1000000, Math.min(count, threads));
+                }
+            }));
+        }
+        builder.shutdown();
+    }
+
     @Override
     public PoolableScriptContext allocate(Slot slot) throws Exception {
-        return new PoolableScriptContext(global, slot);
+        Future<ScriptContextInterface> future = prebuilt.poll();
+        if (future == null) {
+            PoolableScriptContext poolable = new PoolableScriptContext(global, slot);
+            warmup(poolable.getScriptContext());
+            return poolable;
+        }
+
+        ScriptContextInterface ctx;
+        try {
+            ctx = future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception)
+                throw (Exception)e.getCause();
+            throw e;
+        }
+        if (!global.isMultiThreaded())
+            warmup(ctx);
+        return new PoolableScriptContext(global, slot, ctx);
+    }
+
+    /**
+     * Cleans up prebuilt contexts that the pool never took. Contexts still
+     * being built are interrupted and waited for, up to
+     * SHUTDOWN_WAIT_SECONDS, so that the ones that complete are cleaned up
+     * as well; those not started are dropped.
+     */
+    public void shutdown() throws InterruptedException {
+        if (builder != null) {
+            builder.shutdownNow();
+            if (!builder.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS))
+                logger.warn("Script contexts still being built after {} seconds", SHUTDOWN_WAIT_SECONDS);
+        }
+        Future<ScriptContextInterface> future;
+        while ((future = prebuilt.poll()) != null) {
+            if (!future.isDone()) {
+                future.cancel(true);
+                continue;
+            }
+            try {
+                future.get().cleanup();
+            } catch (ExecutionException e) {
+                logger.warn("Prebuilt script context failed", e.getCause());
+            } catch (Exception e) {
+                logger.warn("Error cleaning up prebuilt script context", e);
+            }
+        }
+    }
+
+    /**
+     * Runs the configured warm-up actions on a context before it is handed
+     * out. The request map is flagged with WARMUP so that scripts and
+     * services can skip side effects (ctx.isWarmup()), and failures are only
+     * logged since a warm-up call must never stop the context from being used.
+     */
+    void warmup(ScriptContextInterface ctx) {
+        if (warmup == null || warmup.isEmpty())
+            return;
+
+        long start = System.nanoTime();
+        int calls = 0;
+        int failed = 0;
+        for (int i=0; i<warmupIterations; i++) {
+            for (Map<String, Object> item : warmup) {
+                String action = (String)item.get("action");
+                if (action == null)
+                    continue;
+                Map<String, Object> mapReq = new HashMap<>();
+                mapReq.put(ScriptEngineInterface.WARMUP, true);
+                calls++;
+                try {
+                    global.action(ctx, action, item.get("args"), mapReq);
+                } catch (Exception e) {
+                    failed++;
+                    logger.debug("Warm-up call {} failed: {}", action, e.getMessage());
+                } finally {
+                    ctx.recycle();
+                }
+            }
+        }
+        logger.info("Warm-up of script context took {} ms ({} calls, {} failed)",
+                (System.nanoTime() - start) / 1000000, calls, failed);
     }
 
     @Override
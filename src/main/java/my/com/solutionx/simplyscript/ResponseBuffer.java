@@ -0,0 +1,122 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds a response document that is serialized while its script context is
+ * claimed, so that the context can be released before the document goes to
+ * a (possibly slow) client with finish(). The bytes are kept in a chain of
+ * fixed size chunks, without the copy into one array that a growing buffer
+ * needs. Past limit bytes the chunks are written to out and the rest of the
+ * document is streamed straight through, so a large response holds the
+ * context while it is written but never more than limit bytes of memory.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+public class ResponseBuffer extends OutputStream {
+    static final int CHUNK_SIZE = 8192;
+
+    final OutputStream out;
+    final int limit;
+    final List<byte[]> chunks = new ArrayList<>();
+    byte[] chunk = null;
+    int position = CHUNK_SIZE;
+    int count = 0;
+    boolean streaming = false;
+
+    public ResponseBuffer(OutputStream out, int limit) {
+        this.out = out;
+        this.limit = limit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (streaming || count + 1 > limit) {
+            stream();
+            out.write(b);
+            return;
+        }
+        if (position == CHUNK_SIZE)
+            nextChunk();
+        chunk[position++] = (byte)b;
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (streaming || count + len > limit) {
+            stream();
+            out.write(b, off, len);
+            return;
+        }
+        count += len;
+        while (len > 0) {
+            if (position == CHUNK_SIZE)
+                nextChunk();
+            int n = Math.min(len, CHUNK_SIZE - position);
+            System.arraycopy(b, off, chunk, position, n);
+            position += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    void nextChunk() {
+        chunk = new byte[CHUNK_SIZE];
+        chunks.add(chunk);
+        position = 0;
+    }
+
+    void stream() throws IOException {
+        if (streaming)
+            return;
+        streaming = true;
+        writeChunks();
+    }
+
+    void writeChunks() throws IOException {
+        for (byte[] full : chunks)
+            out.write(full, 0, full == chunk ? position : CHUNK_SIZE);
+        chunks.clear();
+        chunk = null;
+        position = CHUNK_SIZE;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (streaming)
+            out.flush();
+    }
+
+    /**
+     * Writes what is held to out, once the context has been released.
+     */
+    public void finish() throws IOException {
+        if (streaming)
+            return;
+        writeChunks();
+        out.flush();
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+}
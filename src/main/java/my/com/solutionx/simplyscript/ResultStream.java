@@ -0,0 +1,146 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rows that an action returns to be written out one at a time after it has
+ * returned, instead of being collected into a script array first, e.g. a
+ * MyBatis Cursor (see selectStream in the mybatis service). Created through
+ * ctx.stream, which registers it on the request so that the engine closes
+ * the rows and their resource (e.g. the SqlSession) once the response has
+ * been written, the client has gone away or the action failed.
+ *
+ * In a JSON response the rows are written as the data array. With
+ * ScriptEngineInterface.RESPONSE_FORMAT set to ndjson, each row is one line,
+ * followed by a last line with the rest of the response document, so that
+ * a client can tell a complete stream from a cut off one.
+ *
+ * Rows are read after the script context has been released, so they must be
+ * Java objects, not script values.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+@JsonSerialize(using = ResultStream.Serializer.class)
+public class ResultStream implements Iterable<Object>, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ResultStream.class);
+    // request key of the streams to close once the response is written
+    public static final String REQUEST_KEY = "_ss.streams";
+
+    final Iterable<?> rows;
+    final AutoCloseable resource;
+    boolean iterated = false;
+    boolean closed = false;
+
+    public ResultStream(Iterable<?> rows, AutoCloseable resource) {
+        this.rows = rows;
+        this.resource = resource;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<Object> iterator() {
+        if (closed)
+            throw new IllegalStateException("Result stream is already closed");
+        if (iterated)
+            throw new IllegalStateException("Result stream can only be read once");
+        iterated = true;
+        return (Iterator<Object>)rows.iterator();
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        if (rows instanceof AutoCloseable)
+            closeQuietly((AutoCloseable)rows);
+        if (resource != null)
+            closeQuietly(resource);
+    }
+
+    static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            logger.warn("Error closing result stream", e);
+        }
+    }
+
+    /**
+     * Closes the streams that ctx.stream registered on the request.
+     */
+    @SuppressWarnings("unchecked")
+    public static void closeAll(Map<String, Object> mapReq) {
+        if (mapReq == null)
+            return;
+        List<ResultStream> streams = (List<ResultStream>)mapReq.remove(REQUEST_KEY);
+        if (streams == null)
+            return;
+        for (ResultStream stream : streams)
+            stream.close();
+    }
+
+    /**
+     * Writes the rows as NDJSON followed by the rest of the response document
+     * (success and any setReturn values) as the last line.
+     */
+    public void writeNdjson(ObjectMapper mapper, Map<String, Object> response, OutputStream out) throws IOException {
+        Map<String, Object> trailer = new HashMap<>(response);
+        trailer.remove("data");
+        try (SequenceWriter writer = mapper.writer()
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .withRootValueSeparator("\n")
+                .writeValues(out)) {
+            for (Object row : this)
+                writer.write(row);
+            writer.write(trailer);
+        }
+        out.write('\n');
+    }
+
+    public static class Serializer extends StdSerializer<ResultStream> {
+        private static final long serialVersionUID = 1L;
+
+        public Serializer() {
+            super(ResultStream.class);
+        }
+
+        @Override
+        public void serialize(ResultStream t, JsonGenerator jg, SerializerProvider sp) throws IOException {
+            jg.writeStartArray();
+            for (Object row : t)
+                sp.defaultSerializeValue(row, jg);
+            jg.writeEndArray();
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.script.ScriptException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import stormpot.Completion;
+import stormpot.Pool;
+import stormpot.PoolException;
+import stormpot.Timeout;
+
+/**
+ * Wraps the Stormpot pool of script contexts. All claims go through here so
+ * that the claim timeout is configurable and so that claim wait time, queue
+ * depth and contexts in use can be observed.
+ *
+ * With pool_mode=adaptive the target size is moved between pool_min and
+ * pool_max: it grows when claims wait longer than pool_grow_wait_ms or when
+ * pool_grow_queue threads are queued, and shrinks by one context for every
+ * pool_idle_seconds in which the pool was never fully used.
+ *
+ * Claims carry a priority. reserve_high contexts can only be claimed by HIGH
+ * priority calls and reserve_normal more only by HIGH or NORMAL ones, so
+ * LOW (e.g. batch) traffic cannot take the whole pool. The reserves are
+ * kept while an adaptive pool is resized.
+ *
+ * Besides the "default" pool built from [main], module_conf.json "pools"
+ * may define named pools that take the same keys, see ScriptService.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+public class ScriptContextPool {
+    private static final Logger logger = LoggerFactory.getLogger(ScriptContextPool.class);
+
+    public enum Priority {
+        HIGH, NORMAL, LOW;
+
+        /**
+         * null for null, throws IllegalArgumentException for unknown names.
+         */
+        public static Priority of(Object name) {
+            if (name == null || name instanceof Priority)
+                return (Priority)name;
+            return valueOf(String.valueOf(name).trim().toUpperCase());
+        }
+    }
+
+    /**
+     * Admits up to capacity claims at a time. Capacity is the pool size less
+     * what is reserved, which can be negative; the gate then admits none
+     * until the pool has grown past the reserve.
+     */
+    static class Gate extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        int capacity;
+
+        Gate(int capacity) {
+            super(Math.max(0, capacity), true);
+            this.capacity = capacity;
+        }
+
+        synchronized void resize(int delta) {
+            int before = Math.max(0, capacity);
+            capacity += delta;
+            int after = Math.max(0, capacity);
+            if (after > before)
+                release(after - before);
+            else if (after < before)
+                reducePermits(before - after);
+        }
+    }
+
+    final String name;
+    final Pool<PoolableScriptContext> pool;
+    final long claimTimeoutMillis;
+
+    final AtomicInteger waiting = new AtomicInteger();
+    final AtomicInteger inUse = new AtomicInteger();
+    final AtomicInteger peakInUse = new AtomicInteger();
+    final AtomicLong maxWaitNanos = new AtomicLong();
+    ActionMetrics metrics = ActionMetrics.DISABLED;
+
+    // claims below HIGH go through normalGate, LOW ones through lowGate too;
+    // null when nothing is reserved
+    final int reserveHigh;
+    final int reserveNormal;
+    Gate normalGate = null;
+    Gate lowGate = null;
+
+    boolean adaptive = false;
+    int minSize;
+    int maxSize;
+    long growWaitNanos;
+    int growQueue;
+    long idleNanos;
+    long lastBusyNanos;
+    ScheduledExecutorService sizer = null;
+
+    public ScriptContextPool(String name, Pool<PoolableScriptContext> pool, Map<String, String> config) {
+        this.name = name;
+        this.pool = pool;
+        claimTimeoutMillis = (long)(Double.valueOf(config.getOrDefault("claim_timeout", "10")) * 1000);
+        reserveHigh = Integer.valueOf(config.getOrDefault("reserve_high", "0"));
+        reserveNormal = Integer.valueOf(config.getOrDefault("reserve_normal", "0"));
+        if (!config.getOrDefault("pool_mode", "fixed").equalsIgnoreCase("adaptive")) {
+            createGates(pool.getTargetSize());
+            return;
+        }
+
+        adaptive = true;
+        minSize = Integer.valueOf(config.getOrDefault("pool_min", "1"));
+        maxSize = Math.max(minSize, Integer.valueOf(config.getOrDefault("pool_max", String.valueOf(pool.getTargetSize()))));
+        growWaitNanos = TimeUnit.MILLISECONDS.toNanos(Long.valueOf(config.getOrDefault("pool_grow_wait_ms", "50")));
+        growQueue = Integer.valueOf(config.getOrDefault("pool_grow_queue", "1"));
+        idleNanos = TimeUnit.SECONDS.toNanos(Long.valueOf(config.getOrDefault("pool_idle_seconds", "300")));
+        long interval = Long.valueOf(config.getOrDefault("pool_check_interval_ms", "500"));
+        lastBusyNanos = System.nanoTime();
+
+        int size = Math.min(maxSize, Math.max(minSize, pool.getTargetSize()));
+        pool.setTargetSize(size);
+        createGates(size);
+        sizer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "SimplyScript-PoolSizer-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        sizer.scheduleWithFixedDelay(this::resize, interval, interval, TimeUnit.MILLISECONDS);
+        logger.info("Adaptive script context pool {}: min {} max {} initial {}", name, minSize, maxSize, size);
+    }
+
+    void createGates(int size) {
+        if (reserveHigh + reserveNormal <= 0)
+            return;
+        if (reserveHigh + reserveNormal >= size)
+            logger.warn("Script context pool {} reserves {} of {} contexts, LOW priority claims will always time out",
+                    name, reserveHigh + reserveNormal, size);
+        normalGate = new Gate(size - reserveHigh);
+        lowGate = new Gate(size - reserveHigh - reserveNormal);
+    }
+
+    public PoolableScriptContext claim() throws ScriptException, PoolException, InterruptedException {
+        return claim(Priority.NORMAL, claimTimeoutMillis);
+    }
+
+    /**
+     * Waits at most timeoutMillis (callers pass what is left of the
+     * request's deadline when that is shorter than claim_timeout) and fails
+     * right away without claiming when it is not positive.
+     */
+    public PoolableScriptContext claim(Priority priority, long timeoutMillis) throws ScriptException, PoolException, InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        waiting.incrementAndGet();
+        PoolableScriptContext scriptContext = null;
+        boolean normalAcquired = false;
+        boolean lowAcquired = false;
+        try {
+            if (timeoutMillis > 0) {
+                boolean admitted = true;
+                if (priority == Priority.LOW && lowGate != null)
+                    admitted = lowAcquired = lowGate.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (admitted && priority != Priority.HIGH && normalGate != null)
+                    admitted = normalAcquired = normalGate.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (admitted)
+                    scriptContext = pool.claim(new Timeout(deadline - System.nanoTime(), TimeUnit.NANOSECONDS));
+            }
+        } finally {
+            waiting.decrementAndGet();
+            long waited = System.nanoTime() - start;
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+            metrics.recordClaimWait(name, waited, scriptContext == null);
+            if (scriptContext == null) {
+                if (lowAcquired)
+                    lowGate.release();
+                if (normalAcquired)
+                    normalGate.release();
+            }
+        }
+        if (scriptContext == null) {
+            if (timeoutMillis <= 0)
+                throw new ScriptException("Request deadline expired before claiming a script context (pool: " + name + ")");
+            throw new ScriptException("Timeout trying to execute script (pool: " + name + ")");
+        }
+        scriptContext.claimedFrom = this;
+        scriptContext.claimedNormal = normalAcquired;
+        scriptContext.claimedLow = lowAcquired;
+        peakInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+        return scriptContext;
+    }
+
+    void released(PoolableScriptContext scriptContext) {
+        inUse.decrementAndGet();
+        if (scriptContext.claimedLow)
+            lowGate.release();
+        if (scriptContext.claimedNormal)
+            normalGate.release();
+    }
+
+    void setTargetSize(int size) {
+        int delta = size - pool.getTargetSize();
+        pool.setTargetSize(size);
+        if (normalGate != null) {
+            normalGate.resize(delta);
+            lowGate.resize(delta);
+        }
+    }
+
+    void resize() {
+        try {
+            long now = System.nanoTime();
+            int target = pool.getTargetSize();
+            int queued = waiting.get();
+            long waited = maxWaitNanos.getAndSet(0);
+            int peak = peakInUse.getAndSet(inUse.get());
+
+            if ((waited >= growWaitNanos || queued >= growQueue) && queued > 0) {
+                lastBusyNanos = now;
+                if (target < maxSize) {
+                    int size = Math.min(maxSize, target + Math.max(1, queued));
+                    setTargetSize(size);
+                    logger.info("Growing script context pool {} from {} to {} (queued: {}, max wait: {} ms)",
+                            name, target, size, queued, TimeUnit.NANOSECONDS.toMillis(waited));
+                }
+                return;
+            }
+
+            if (peak >= target) {
+                lastBusyNanos = now;
+                return;
+            }
+
+            if (target > minSize && now - lastBusyNanos >= idleNanos) {
+                lastBusyNanos = now;
+                setTargetSize(target - 1);
+                logger.info("Shrinking idle script context pool {} from {} to {}", name, target, target - 1);
+            }
+        } catch (Exception e) {
+            logger.warn("Error resizing script context pool " + name, e);
+        }
+    }
+
+    public void setMetrics(ActionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Pool<PoolableScriptContext> getPool() {
+        return pool;
+    }
+
+    public int getTargetSize() {
+        return pool.getTargetSize();
+    }
+
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    public int getReserveHigh() {
+        return reserveHigh;
+    }
+
+    public int getReserveNormal() {
+        return reserveNormal;
+    }
+
+    public long getClaimTimeoutMillis() {
+        return claimTimeoutMillis;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public Completion shutdown() {
+        if (sizer != null)
+            sizer.shutdownNow();
+        sizer = null;
+        return pool.shutdown();
+    }
+}
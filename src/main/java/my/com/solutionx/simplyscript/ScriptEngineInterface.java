@@ -17,6 +17,7 @@ package my.com.solutionx.simplyscript;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +31,18 @@ import stormpot.PoolException;
 public interface ScriptEngineInterface {
     public static final String OTHER_RETURN_DATA = "_ss.other_return_data";
     public static final String PROCESS_COMMANDS = "_ss.commands";
+    public static final String WARMUP = "_ss.warmup";
+    // request keys read when claiming a context, see ScriptService.claimScriptContext
+    public static final String PRIORITY = "_ss.priority";
+    public static final String DEADLINE = "_ss.deadline";
+    // action name batches are claimed, recorded and given priority under
+    public static final String BATCH_ACTION = "_batch";
+    // request key for how the response is written, FORMAT_NDJSON or a JSON document by default
+    public static final String RESPONSE_FORMAT = "_ss.format";
+    public static final String FORMAT_NDJSON = "ndjson";
+    // request key of a user the caller has already authenticated (e.g. a
+    // verified JWT), a JsonNode or Map that becomes the ctx user of the call
+    public static final String USER = "_ss.user";
 
     public void init(ScriptService aThis, Map<String, Object> mapScriptConfig) throws ScriptException, IOException;
     public ScriptContextInterface getScriptContext();
@@ -42,7 +55,24 @@ public interface ScriptEngineInterface {
     public Object getModule(String name)  throws ScriptException, PoolException, InterruptedException;
     
     public Map<String, Object> action(String action, Object args, Map<String, Object> mapReq) throws ScriptException, PoolException, InterruptedException;
+    public Map<String, Object> action(ScriptContextInterface ctx, String action, Object args, Map<String, Object> mapReq) throws ScriptException;
     public String actionReturnString(String action, Object args, Map<String, Object> mapReq) throws ScriptException, PoolException, InterruptedException, JsonProcessingException;
+    public void actionWriteTo(String action, Object args, Map<String, Object> mapReq, OutputStream out) throws ScriptException, PoolException, InterruptedException, IOException;
+
+    /**
+     * Runs the {"action": ..., "args": ...} items in order on one context,
+     * see batch in ctx_prototype.js. The response document's data holds one
+     * result document per item.
+     */
+    public Map<String, Object> batch(List<Map<String, Object>> items, boolean transaction, boolean continueOnError, Map<String, Object> mapReq) throws ScriptException, PoolException, InterruptedException;
+    public Map<String, Object> batch(ScriptContextInterface ctx, List<Map<String, Object>> items, boolean transaction, boolean continueOnError, Map<String, Object> mapReq) throws ScriptException;
+    public void batchWriteTo(List<Map<String, Object>> items, boolean transaction, boolean continueOnError, Map<String, Object> mapReq, OutputStream out) throws ScriptException, PoolException, InterruptedException, IOException;
+
+    /**
+     * Whether scripts can run on several pooled contexts at the same time,
+     * which allows warm-up and preload to be done in parallel.
+     */
+    public boolean isMultiThreaded();
 
     public void addClasspath(String path) throws MalformedURLException;
     public void shutdown();
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The logger behind log and console in init.js, one per name for the whole
+ * JVM. Levels are ints so that a script picks the level without a method
+ * lookup by name, checks isEnabled before it passes any argument, and then
+ * calls the log method of the number of arguments it has rather than one
+ * that takes ten.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+public final class ScriptLogger {
+    public static final int ERROR = 0;
+    public static final int WARN = 1;
+    public static final int INFO = 2;
+    public static final int DEBUG = 3;
+    public static final int TRACE = 4;
+
+    static final Map<String, ScriptLogger> loggers = new ConcurrentHashMap<>();
+
+    final Logger logger;
+
+    ScriptLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    public static ScriptLogger get(String name) {
+        ScriptLogger scriptLogger = loggers.get(name);
+        if (scriptLogger == null)
+            scriptLogger = loggers.computeIfAbsent(name, k -> new ScriptLogger(LoggerFactory.getLogger(k)));
+        return scriptLogger;
+    }
+
+    public String getName() {
+        return logger.getName();
+    }
+
+    public boolean isEnabled(int level) {
+        switch (level) {
+            case ERROR: return logger.isErrorEnabled();
+            case WARN: return logger.isWarnEnabled();
+            case INFO: return logger.isInfoEnabled();
+            case DEBUG: return logger.isDebugEnabled();
+            default: return logger.isTraceEnabled();
+        }
+    }
+
+    public void log(int level, String message) {
+        switch (level) {
+            case ERROR: logger.error(message); break;
+            case WARN: logger.warn(message); break;
+            case INFO: logger.info(message); break;
+            case DEBUG: logger.debug(message); break;
+            default: logger.trace(message);
+        }
+    }
+
+    public void log(int level, String format, Object arg) {
+        switch (level) {
+            case ERROR: logger.error(format, arg); break;
+            case WARN: logger.warn(format, arg); break;
+            case INFO: logger.info(format, arg); break;
+            case DEBUG: logger.debug(format, arg); break;
+            default: logger.trace(format, arg);
+        }
+    }
+
+    public void log(int level, String format, Object arg1, Object arg2) {
+        switch (level) {
+            case ERROR: logger.error(format, arg1, arg2); break;
+            case WARN: logger.warn(format, arg1, arg2); break;
+            case INFO: logger.info(format, arg1, arg2); break;
+            case DEBUG: logger.debug(format, arg1, arg2); break;
+            default: logger.trace(format, arg1, arg2);
+        }
+    }
+
+    public void logArgs(int level, String format, Object[] args) {
+        switch (level) {
+            case ERROR: logger.error(format, args); break;
+            case WARN: logger.warn(format, args); break;
+            case INFO: logger.info(format, args); break;
+            case DEBUG: logger.debug(format, args); break;
+            default: logger.trace(format, args);
+        }
+    }
+}
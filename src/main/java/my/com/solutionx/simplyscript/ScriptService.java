@@ -19,35 +19,64 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import javax.script.ScriptException;
 import stormpot.Pool;
 import stormpot.PoolBuilder;
 import stormpot.PoolException;
+import stormpot.Timeout;
 
 /**
  *
  * @author kokhoor
  */
 public class ScriptService {
+    public static final String DEFAULT_POOL = "default";
+
     ScriptEngineInterface engine;
 
     Pool<PoolableScriptContext> poolContext;
+    ScriptContextPool contextPool;
+    final Map<String, ScriptContextPool> pools = new LinkedHashMap<>();
+    final Map<String, ScriptContextPool> modulePools = new HashMap<>();
+    final Map<String, ScriptContextPool.Priority> priorities = new HashMap<>();
+    final List<PoolableScriptContextAllocator> allocators = new ArrayList<>();
+    // bumped whenever a module leaves the cache, so per context action tables
+    // resolved against the old module object are dropped
+    final AtomicInteger moduleGeneration = new AtomicInteger();
     Cache<String, Object> modules = Caffeine.newBuilder()
             .maximumSize(1024)
+            .executor(Runnable::run)
+            .removalListener((String key, Object value, RemovalCause cause) -> moduleGeneration.incrementAndGet())
             .build();
 
     Map<String, Object> app = new ConcurrentHashMap<>();
@@ -56,8 +85,18 @@ public class ScriptService {
             .build();
     Map<String, Object> system = new ConcurrentHashMap<>();
     Map<String, Object> services = new ConcurrentHashMap<>();
+    Map<String, Object> shared = new ConcurrentHashMap<>();
+    // by name, found again after addClasspath (see getServiceProvider)
+    volatile Map<String, ScriptServiceProvider> serviceProviders = null;
+    final Map<String, Object> javaServices = new ConcurrentHashMap<>();
+    List<String> servicePreload = Collections.emptyList();
     SimplyScriptClassLoader loader = null;
-    Set<String> privilegedServices = new HashSet<>();
+    Set<String> privilegedServices = ConcurrentHashMap.newKeySet();
+    final Map<String, String> serviceIds = new ConcurrentHashMap<>();
+    final AtomicInteger activeCalls = new AtomicInteger();
+    final ActionMetrics metrics = new ActionMetrics();
+    final Interceptors interceptors = new Interceptors();
+    final List<AutoCloseable> closeables = new ArrayList<>();
 
     // Map<String, String> config = null;
     private Map<String, Object> mapScriptConfig;
@@ -68,15 +107,19 @@ public class ScriptService {
     
     public void init(Map<String, String> config) throws FileNotFoundException, IOException, ScriptException, PoolException, InterruptedException, ScriptServiceException, InvocationTargetException {
         // this.config = config;
+        long startInit = System.nanoTime();
         loader = new SimplyScriptClassLoader("SimplyScriptService", new URL[] {}, this.getClass().getClassLoader() );
         Thread.currentThread().setContextClassLoader(loader);
         String config_path = config.getOrDefault("config_path", "./config/");
         String working_path = config.getOrDefault("working_path", "./");
         String scripts_path = config.getOrDefault("scripts_path", "./scripts/");
         String pool_size = config.getOrDefault("pool_size", "5");
+        int startup_threads = Integer.valueOf(config.getOrDefault("startup_threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
         config.put("config_path", config_path);
         config.put("scripts_path", scripts_path);
         config.put("working_path", working_path);
+        metrics.setMaxNames(Integer.valueOf(config.getOrDefault("metrics_max_names", "1000")));
 
         String ScriptEngineClass = config.getOrDefault("engine", "my.com.solutionx.simplyscript.nashorn.ScriptEngine");
         System.out.println("Using ScriptEngineClass: " + ScriptEngineClass);
@@ -114,24 +157,199 @@ public class ScriptService {
         mapScriptConfig.put("config", config);
         system.put("config", mapScriptConfig);
         engine.init(this, mapScriptConfig);
+        long startPool = System.nanoTime();
+
+        List<Map<String, Object>> warmup = loadWarmup(mapper, config_path, mapModuleConfig);
+        int warmupIterations = Integer.valueOf(String.valueOf(mapModuleConfig.getOrDefault("warmup_iterations", "1")));
+        Map<String, Map<String, Object>> mapPoolsConfig = (Map<String, Map<String, Object>>)mapModuleConfig.get("pools");
+        if (mapPoolsConfig == null)
+            mapPoolsConfig = Collections.emptyMap();
+        Map<String, String> modulePoolNames = new HashMap<>();
+        for (Map.Entry<String, Map<String, Object>> entry : mapPoolsConfig.entrySet()) {
+            if (entry.getKey().equals(DEFAULT_POOL))
+                throw new ScriptServiceException("Pool name is reserved: " + DEFAULT_POOL, "E_ReservedPoolName");
+            List<String> poolModules = (List<String>)entry.getValue().get("modules");
+            if (poolModules != null)
+                for (String module : poolModules)
+                    modulePoolNames.put(module, entry.getKey());
+        }
 
-        PoolableScriptContextAllocator allocator = new PoolableScriptContextAllocator(engine);
-        PoolBuilder<PoolableScriptContext> poolBuilder = Pool.from(allocator);
-        poolBuilder = poolBuilder.setSize(Integer.valueOf(pool_size));
-        poolContext = poolBuilder.build();
+        // ordered before the pools are built, since an engine that sets up
+        // services per context does so when it builds each context
+        List<String> preload = (List<String>)mapServiceConfig.get("preload");
+        Map<String, List<String>> dependencies = (Map<String, List<String>>)mapServiceConfig.get("dependencies");
+        if (dependencies == null)
+            dependencies = new HashMap<>();
+        servicePreload = preload == null ? Collections.emptyList() : preloadOrder(preload, dependencies);
+
+        config.put("pool_size", pool_size);
+        contextPool = buildPool(DEFAULT_POOL, config, warmup, warmupIterations, modulePoolNames, startup_threads);
+        poolContext = contextPool.getPool();
+        for (Map.Entry<String, Map<String, Object>> entry : mapPoolsConfig.entrySet()) {
+            Map<String, String> poolConfig = new HashMap<>();
+            poolConfig.put("claim_timeout", config.getOrDefault("claim_timeout", "10"));
+            for (Map.Entry<String, Object> value : entry.getValue().entrySet()) {
+                if (!value.getKey().equals("modules"))
+                    poolConfig.put(value.getKey(), String.valueOf(value.getValue()));
+            }
+            buildPool(entry.getKey(), poolConfig, warmup, warmupIterations, modulePoolNames, startup_threads);
+        }
+        for (Map.Entry<String, String> entry : modulePoolNames.entrySet())
+            modulePools.put(entry.getKey(), pools.get(entry.getValue()));
+        Map<String, Object> mapPriorities = (Map<String, Object>)mapModuleConfig.get("priorities");
+        if (mapPriorities != null) {
+            for (Map.Entry<String, Object> entry : mapPriorities.entrySet()) {
+                try {
+                    priorities.put(entry.getKey(), ScriptContextPool.Priority.of(entry.getValue()));
+                } catch (IllegalArgumentException e) {
+                    throw new ScriptServiceException("Invalid priority for " + entry.getKey() + ": " + entry.getValue(), "E_InvalidPriority");
+                }
+            }
+        }
 /*
         ScriptContextInterface ctx = engine.getScriptContext();
         ctx.init();
 */
-        List<String> preload = (List<String>)mapServiceConfig.get("preload");
-        if (preload != null) {
-            engine.loadServices(preload);
-        }
+        long startServices = System.nanoTime();
+        if (!servicePreload.isEmpty())
+            preloadServices(servicePreload, dependencies, startup_threads);
 
+        long startModules = System.nanoTime();
         preload = (List<String>)mapModuleConfig.get("preload");
         if (preload != null) {
             engine.loadModules(preload);
         }
+        long end = System.nanoTime();
+        System.out.println(String.format("Startup: engine %d ms, pool %d ms, services %d ms, modules %d ms, total %d ms",
+                (startPool - startInit) / 1000000, (startServices - startPool) / 1000000,
+                (startModules - startServices) / 1000000, (end - startModules) / 1000000, (end - startInit) / 1000000));
+    }
+
+    /**
+     * Each pool has its own contexts, allocator and claim timeout, so that
+     * modules that block on a slow downstream system can only exhaust the
+     * pool they are assigned to. Named pools come from module_conf.json, e.g.
+     * "pools": {"db": {"pool_size": 4, "claim_timeout": 5, "modules": ["Auth"]}}
+     * and take the same keys as [main] (pool_mode, pool_min, ...). Warm-up
+     * actions run in the pool their module is routed to.
+     */
+    ScriptContextPool buildPool(String name, Map<String, String> config, List<Map<String, Object>> warmup, int warmupIterations,
+            Map<String, String> modulePoolNames, int threads) throws IOException, ScriptException {
+        int size = Integer.valueOf(config.getOrDefault("pool_size", "5"));
+        List<Map<String, Object>> poolWarmup = new ArrayList<>();
+        for (Map<String, Object> item : warmup) {
+            String action = String.valueOf(item.get("action"));
+            int idx = action.lastIndexOf('.');
+            String module = idx < 0 ? action : action.substring(0, idx);
+            if (modulePoolNames.getOrDefault(module, DEFAULT_POOL).equals(name))
+                poolWarmup.add(item);
+        }
+
+        PoolableScriptContextAllocator allocator = new PoolableScriptContextAllocator(engine);
+        allocator.setWarmup(poolWarmup, warmupIterations);
+        allocator.prebuild(size, threads);
+        allocators.add(allocator);
+        PoolBuilder<PoolableScriptContext> poolBuilder = Pool.from(allocator);
+        poolBuilder = poolBuilder.setSize(size);
+        ScriptContextPool pool = new ScriptContextPool(name, poolBuilder.build(), config);
+        pool.setMetrics(metrics);
+        pools.put(name, pool);
+        return pool;
+    }
+
+    /**
+     * Services are set up after the services they list in service_conf
+     * "dependencies" (e.g. {"metrics": ["db"]}); services that do not depend
+     * on each other are set up in parallel, each on its own claimed context.
+     * Falls back to setting them up one by one when the engine cannot run
+     * scripts concurrently.
+     */
+    void preloadServices(List<String> order, Map<String, List<String>> dependencies, int threads) throws ScriptException, PoolException, InterruptedException, ScriptServiceException {
+        if (threads <= 1 || order.size() <= 1 || !engine.isMultiThreaded()) {
+            engine.loadServices(order);
+            return;
+        }
+
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, order.size()), r -> {
+            Thread thread = new Thread(r, "SimplyScript-Preload-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Map<String, CompletableFuture<Void>> loaded = new HashMap<>();
+            for (String name : order) {
+                CompletableFuture<?>[] before = dependencies.getOrDefault(name, Collections.emptyList()).stream()
+                        .map(loaded::get).toArray(CompletableFuture<?>[]::new);
+                loaded.put(name, CompletableFuture.allOf(before).thenRunAsync(() -> {
+                    try {
+                        engine.loadServices(Collections.singletonList(name));
+                    } catch (ScriptException | PoolException | InterruptedException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(loaded.values().toArray(new CompletableFuture<?>[0])).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ScriptException)
+                throw (ScriptException)cause;
+            if (cause instanceof PoolException)
+                throw (PoolException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            throw new ScriptException(cause.getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * The preload services after the services they depend on.
+     */
+    List<String> preloadOrder(List<String> preload, Map<String, List<String>> dependencies) throws ScriptServiceException {
+        List<String> order = new ArrayList<>();
+        Set<String> done = new HashSet<>();
+        for (String name : preload)
+            visitService(name, dependencies, new HashSet<>(), done, order);
+        return order;
+    }
+
+    void visitService(String name, Map<String, List<String>> dependencies, Set<String> visiting, Set<String> done, List<String> order) throws ScriptServiceException {
+        if (done.contains(name))
+            return;
+        if (!visiting.add(name))
+            throw new ScriptServiceException("Circular service dependency at: " + name, "E_ServiceDependencyCycle");
+        for (String dependency : dependencies.getOrDefault(name, Collections.emptyList()))
+            visitService(dependency, dependencies, visiting, done, order);
+        visiting.remove(name);
+        done.add(name);
+        order.add(name);
+    }
+
+    /**
+     * Warm-up actions come from the "warmup" list in module_conf.json and/or
+     * from "warmup_file", a JSON array of {"action": ..., "args": ...} (e.g. a
+     * recorded sample of real requests) relative to config_path/scripts/.
+     */
+    List<Map<String, Object>> loadWarmup(ObjectMapper mapper, String config_path, Map<String, Object> mapModuleConfig) throws IOException {
+        List<Map<String, Object>> warmup = new ArrayList<>();
+        List<Map<String, Object>> items = (List<Map<String, Object>>)mapModuleConfig.get("warmup");
+        if (items != null)
+            warmup.addAll(items);
+
+        String warmupFile = (String)mapModuleConfig.get("warmup_file");
+        if (warmupFile != null) {
+            File file = new File(warmupFile);
+            if (!file.isAbsolute())
+                file = new File(config_path + "/scripts/" + warmupFile);
+            if (file.exists()) {
+                warmup.addAll(mapper.readValue(file, List.class));
+            } else {
+                System.out.println("Warm-up file not found: " + file.getPath());
+            }
+        }
+        return warmup;
     }
 
     public ScriptEngineInterface engine() {
@@ -200,6 +418,68 @@ public class ScriptService {
         return services.put(key, value);
     }
 
+    /**
+     * Service preload list of service_conf.json, dependencies first.
+     */
+    public List<String> getServicePreload() {
+        return servicePreload;
+    }
+
+    /**
+     * Java objects that every script context shares (e.g. a MyBatis
+     * SqlSessionFactory or a signing key) while the script objects that use
+     * them are set up in each context. The first caller creates the object
+     * with factory; the others get that one. factory must return a Java
+     * object, not a script object, which would belong to the caller's context.
+     */
+    public Object shared(String key, Function<String, Object> factory) {
+        return shared.computeIfAbsent(key, factory);
+    }
+
+    /**
+     * The ScriptServiceProvider named name on the class path of the scripts,
+     * including the jars added with addClasspath, or null.
+     */
+    public ScriptServiceProvider getServiceProvider(String name) {
+        Map<String, ScriptServiceProvider> providers = serviceProviders;
+        if (providers == null) {
+            providers = new HashMap<>();
+            for (ScriptServiceProvider provider : ServiceLoader.load(ScriptServiceProvider.class, loader))
+                providers.putIfAbsent(provider.getName(), provider);
+            serviceProviders = providers;
+        }
+        return providers.get(name);
+    }
+
+    /**
+     * The object of a Java service, set up with the service's initArguments
+     * on first use; every script context that sets up the service gets this
+     * one.
+     */
+    public Object javaService(ScriptServiceProvider provider) throws Exception {
+        String name = provider.getName();
+        Object service = javaServices.get(name);
+        if (service != null)
+            return service;
+        synchronized (this) {
+            service = javaServices.get(name);
+            if (service == null) {
+                Map<String, Object> mapServiceConfig = (Map<String, Object>)mapScriptConfig.get("service");
+                Map<String, Object> initArguments = (Map<String, Object>)mapServiceConfig.get("initArguments");
+                Map<String, Object> args = initArguments == null ? null : (Map<String, Object>)initArguments.get(name);
+                service = provider.setup(this, args == null ? Collections.emptyMap() : args);
+                if (service == null)
+                    throw new ScriptServiceException("Service cannot be setup: " + name, "E_ServiceSetup");
+                javaServices.put(name, service);
+            }
+        }
+        return service;
+    }
+
+    public int moduleGeneration() {
+        return moduleGeneration.get();
+    }
+
     public Object module(String key) {
         return modules.getIfPresent(key);
     }
@@ -220,6 +500,123 @@ public class ScriptService {
         return poolContext;
     }
 
+    public ScriptContextPool getContextPool() {
+        return contextPool;
+    }
+
+    public Collection<ScriptContextPool> getContextPools() {
+        return pools.values();
+    }
+
+    /**
+     * The pool a top level call to action ("Module.method") claims its
+     * context from: the named pool listing the module in module_conf.json
+     * "pools", otherwise the default pool. Inner calls run on the context
+     * of the top level call.
+     */
+    public ScriptContextPool getContextPool(String action) {
+        if (modulePools.isEmpty() || action == null)
+            return contextPool;
+        int idx = action.lastIndexOf('.');
+        if (idx <= 0)
+            return contextPool;
+        ScriptContextPool pool = modulePools.get(action.substring(0, idx));
+        return pool == null ? contextPool : pool;
+    }
+
+    public ActionMetrics metrics() {
+        return metrics;
+    }
+
+    public Interceptors interceptors() {
+        return interceptors;
+    }
+
+    public PoolableScriptContext claimScriptContext() throws ScriptException, PoolException, InterruptedException {
+        return contextPool.claim();
+    }
+
+    public PoolableScriptContext claimScriptContext(String action) throws ScriptException, PoolException, InterruptedException {
+        return claimScriptContext(action, null);
+    }
+
+    /**
+     * Claims with the priority set in mapReq (PRIORITY, e.g. from a request
+     * header), else the one module_conf.json "priorities" gives the action
+     * or its module, else NORMAL. When mapReq has a DEADLINE (a
+     * System.nanoTime() value) the claim waits no longer than what is left
+     * of it.
+     */
+    public PoolableScriptContext claimScriptContext(String action, Map<String, Object> mapReq) throws ScriptException, PoolException, InterruptedException {
+        return claimScriptContext(getContextPool(action), getPriority(action), mapReq);
+    }
+
+    /**
+     * Claims the context a batch runs all its items on, from the pool of its
+     * items (see getContextPool(List)) at the lowest priority of any item, so
+     * that a batch does not take capacity its items could not.
+     */
+    public PoolableScriptContext claimBatchContext(List<Map<String, Object>> items, Map<String, Object> mapReq) throws ScriptException, PoolException, InterruptedException {
+        return claimScriptContext(getContextPool(items), getPriority(items), mapReq);
+    }
+
+    PoolableScriptContext claimScriptContext(ScriptContextPool pool, ScriptContextPool.Priority defaultPriority, Map<String, Object> mapReq) throws ScriptException, PoolException, InterruptedException {
+        ScriptContextPool.Priority priority = null;
+        long timeoutMillis = pool.getClaimTimeoutMillis();
+        if (mapReq != null) {
+            priority = (ScriptContextPool.Priority)mapReq.get(ScriptEngineInterface.PRIORITY);
+            Object deadline = mapReq.get(ScriptEngineInterface.DEADLINE);
+            if (deadline != null)
+                timeoutMillis = Math.min(timeoutMillis,
+                        TimeUnit.NANOSECONDS.toMillis(((Number)deadline).longValue() - System.nanoTime()));
+        }
+        if (priority == null)
+            priority = defaultPriority;
+        return pool.claim(priority, timeoutMillis);
+    }
+
+    /**
+     * The pool of a batch: the one all its items' actions are routed to.
+     * Items of different pools can not run on one context, so such a batch
+     * is rejected with an IllegalArgumentException.
+     */
+    public ScriptContextPool getContextPool(List<Map<String, Object>> items) {
+        ScriptContextPool pool = null;
+        for (Map<String, Object> item : items) {
+            ScriptContextPool itemPool = getContextPool((String)item.get("action"));
+            if (pool != null && itemPool != pool)
+                throw new IllegalArgumentException("Batch items are routed to more than one context pool: "
+                        + pool.getName() + ", " + itemPool.getName());
+            pool = itemPool;
+        }
+        return pool == null ? contextPool : pool;
+    }
+
+    /**
+     * The lowest priority of the items of a batch, NORMAL for no items.
+     */
+    public ScriptContextPool.Priority getPriority(List<Map<String, Object>> items) {
+        ScriptContextPool.Priority lowest = null;
+        for (Map<String, Object> item : items) {
+            ScriptContextPool.Priority priority = getPriority((String)item.get("action"));
+            if (lowest == null || priority.compareTo(lowest) > 0)
+                lowest = priority;
+        }
+        return lowest == null ? ScriptContextPool.Priority.NORMAL : lowest;
+    }
+
+    public ScriptContextPool.Priority getPriority(String action) {
+        if (priorities.isEmpty() || action == null)
+            return ScriptContextPool.Priority.NORMAL;
+        ScriptContextPool.Priority priority = priorities.get(action);
+        if (priority == null) {
+            int idx = action.lastIndexOf('.');
+            if (idx > 0)
+                priority = priorities.get(action.substring(0, idx));
+        }
+        return priority == null ? ScriptContextPool.Priority.NORMAL : priority;
+    }
+
     public Object action(String action) throws ScriptException, PoolException, InterruptedException {
         return action(action, null);
     }
@@ -244,6 +641,26 @@ public class ScriptService {
         return engine.actionReturnString(action, args, mapReq);
     }
 
+    public void actionWriteTo(String action, Object args, OutputStream out) throws ScriptException, PoolException, InterruptedException, IOException {
+        actionWriteTo(action, args, null, out);
+    }
+
+    /**
+     * Same response document as actionReturnString, serialized straight into
+     * out without building an intermediate String. The stream is not closed.
+     */
+    public void actionWriteTo(String action, Object args, Map<String, Object> mapReq, OutputStream out) throws ScriptException, PoolException, InterruptedException, IOException {
+        engine.actionWriteTo(action, args, mapReq, out);
+    }
+
+    public Object batch(List<Map<String, Object>> items, boolean transaction, boolean continueOnError, Map<String, Object> mapReq) throws ScriptException, PoolException, InterruptedException {
+        return engine.batch(items, transaction, continueOnError, mapReq);
+    }
+
+    public void batchWriteTo(List<Map<String, Object>> items, boolean transaction, boolean continueOnError, Map<String, Object> mapReq, OutputStream out) throws ScriptException, PoolException, InterruptedException, IOException {
+        engine.batchWriteTo(items, transaction, continueOnError, mapReq, out);
+    }
+
     public void addClasspath(String strFile) throws MalformedURLException {
         File file = new File(strFile);
         String[] files;
@@ -265,9 +682,11 @@ public class ScriptService {
                 }
 
                 loader.addURL(file.toURL());
+                serviceProviders = null;
             }
         } else if (file.exists() && file.isDirectory()) {
             loader.addURL(file.toURL());
+            serviceProviders = null;
         } else {
             System.out.println("Ignored : " + file.getPath());
         }
@@ -277,10 +696,90 @@ public class ScriptService {
         return loader;
     }
     
-    public void reload() throws IOException, FileNotFoundException, ScriptException, PoolException, InterruptedException, ScriptServiceException, InvocationTargetException {
-        if (poolContext != null)
-            poolContext.shutdown();
+    /**
+     * Claims every context of every pool once so that they are allocated (and
+     * warmed up) before this instance takes traffic.
+     */
+    public void warmUp() throws ScriptException, PoolException, InterruptedException {
+        List<PoolableScriptContext> claimed = new ArrayList<>();
+        try {
+            for (ScriptContextPool pool : pools.values()) {
+                // HIGH so that the contexts reserved for it are included
+                for (int i=0; i<pool.getTargetSize(); i++)
+                    claimed.add(pool.claim(ScriptContextPool.Priority.HIGH, pool.getClaimTimeoutMillis()));
+            }
+        } finally {
+            for (PoolableScriptContext scriptContext : claimed)
+                scriptContext.release();
+        }
+    }
+
+    /**
+     * Callers that may outlive a swap of ScriptService instances bracket
+     * their calls with enter()/exit(), so the old instance can be drained
+     * before it is shut down.
+     */
+    public void enter() {
+        activeCalls.incrementAndGet();
+    }
+
+    public void exit() {
+        activeCalls.decrementAndGet();
+    }
+
+    public int getActiveCalls() {
+        return activeCalls.get();
+    }
+
+    /**
+     * Closed in reverse order of registration when this instance shuts down,
+     * before the pool, so that they can still run scripts.
+     */
+    public synchronized void addCloseable(AutoCloseable closeable) {
+        closeables.add(closeable);
+    }
+
+    public MetricsAggregator newMetricsAggregator(Map<String, Object> config, MetricsAggregator.Sink sink) {
+        MetricsAggregator aggregator = new MetricsAggregator(this, config, sink);
+        addCloseable(aggregator);
+        return aggregator;
+    }
+
+    /**
+     * With a "name" in config, the script contexts that set up the same
+     * service get one aggregator, on which each adds its own sink.
+     */
+    public MetricsAggregator newMetricsAggregator(Map<String, Object> config, MetricsAggregator.Sink sink, ScriptContextInterface owner) {
+        Object name = config.get("name");
+        if (name == null)
+            return newMetricsAggregator(config, sink);
+        MetricsAggregator aggregator = (MetricsAggregator)shared("MetricsAggregator." + name, k -> newMetricsAggregator(config, sink));
+        aggregator.addSink(owner, sink);
+        return aggregator;
+    }
+
+    public void shutdown() throws InterruptedException {
+        synchronized (this) {
+            for (int i=closeables.size()-1; i>=0; i--) {
+                try {
+                    closeables.get(i).close();
+                } catch (Exception e) {
+                    System.out.println("Error closing " + closeables.get(i) + ": " + e.getMessage());
+                }
+            }
+            closeables.clear();
+        }
+        for (ScriptContextPool pool : pools.values()) {
+            pool.shutdown().await(new Timeout(pool.getClaimTimeoutMillis(), TimeUnit.MILLISECONDS));
+        }
+        pools.clear();
+        modulePools.clear();
+        priorities.clear();
+        contextPool = null;
         poolContext = null;
+        for (PoolableScriptContextAllocator allocator : allocators)
+            allocator.shutdown();
+        allocators.clear();
 
         if (engine != null)
             engine.shutdown();
@@ -292,6 +791,10 @@ public class ScriptService {
         } catch (IOException ex) {
         }
         loader = null;
+    }
+
+    public void reload() throws IOException, FileNotFoundException, ScriptException, PoolException, InterruptedException, ScriptServiceException, InvocationTargetException {
+        shutdown();
 
         if (modules != null)
             modules.invalidateAll();
@@ -310,6 +813,17 @@ public class ScriptService {
             services.clear();
         }
 
+        if (shared != null) {
+            shared.clear();
+        }
+
+        javaServices.clear();
+        serviceProviders = null;
+        interceptors.clear();
+        for (String uniqueid : serviceIds.values())
+            removePrivilegedService(uniqueid);
+        serviceIds.clear();
+
         init((Map<String, String>) mapScriptConfig.get("config"));
     }
 
@@ -317,6 +831,26 @@ public class ScriptService {
         return mapScriptConfig;
     }
     
+    /**
+     * The uniqueid that service name is set up with. It is the same for
+     * every script context that sets the service up (see context_affine),
+     * and it is added to the privileged services once when name is listed
+     * in privilegedServices.
+     */
+    public String serviceUniqueId(String name) {
+        String uniqueid = serviceIds.get(name);
+        if (uniqueid != null)
+            return uniqueid;
+        return serviceIds.computeIfAbsent(name, k -> {
+            String id = UUID.randomUUID().toString();
+            Map<String, Object> mapServiceConfig = (Map<String, Object>)mapScriptConfig.get("service");
+            List<?> lstPrivileged = (List<?>)mapServiceConfig.get("privilegedServices");
+            if (lstPrivileged != null && lstPrivileged.contains(k))
+                addPrivilegedService(id);
+            return id;
+        });
+    }
+
     public void addPrivilegedService(String uniqueid) {
         privilegedServices.add(uniqueid);
     }
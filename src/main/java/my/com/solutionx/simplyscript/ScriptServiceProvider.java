@@ -0,0 +1,67 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A service implemented in Java, found through ServiceLoader on the
+ * SimplyScriptClassLoader (a META-INF/services entry in the application or
+ * in a jar added with addClasspath). When a provider has the name of a
+ * service that service_conf does not map to a script, the service is set up
+ * from the provider instead of from index.js: scripts get the object that
+ * setup returns through ctx.service(name) or ctx.&lt;name&gt;, the same as for a
+ * script service, and call its public methods without a script wrapper in
+ * between.
+ *
+ * setup is called once per ScriptService; the object it returns is shared by
+ * every script context and called from several threads at once.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+public interface ScriptServiceProvider {
+    public static final String PRE_CALL = "preCall";
+    public static final String POST_CALL = "postCall";
+    public static final String PRE_INNER_CALL = "preInnerCall";
+    public static final String POST_INNER_CALL = "postInnerCall";
+
+    public String getName();
+
+    /**
+     * Returns the service object. args are the service's initArguments in
+     * service_conf.
+     */
+    public Object setup(ScriptService scriptService, Map<String, Object> args) throws Exception;
+
+    /**
+     * The hooks (PRE_CALL, POST_CALL, PRE_INNER_CALL, POST_INNER_CALL) that
+     * call hook, with their priority as for a script service.
+     */
+    public default Map<String, Integer> getHooks() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Runs one of getHooks for a call of action. error is the script error of
+     * a failed call in the post hooks, otherwise null. A non null return
+     * value of a service listed in privilegedServices becomes the user of the
+     * call (ctx.setUser); a JsonNode is handed to scripts as an object.
+     */
+    public default Object hook(String hook, ScriptContextInterface context, Object error, String action, Object args) throws Exception {
+        return null;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.script.ScriptException;
+
+/**
+ * Parsed/compiled scripts shared by every context of an engine, keyed by
+ * canonical path. An entry is rebuilt when the file's modification time
+ * changes, so edited scripts are still picked up on the next load.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ * @param <T> compiled form of a script, e.g. a polyglot Source or CompiledScript
+ */
+public class ScriptSourceCache<T> {
+    public interface Compiler<T> {
+        T compile(File file) throws IOException, ScriptException;
+    }
+
+    static class Entry<T> {
+        final long lastModified;
+        final T source;
+
+        Entry(long lastModified, T source) {
+            this.lastModified = lastModified;
+            this.source = source;
+        }
+    }
+
+    final Map<String, Entry<T>> sources = new ConcurrentHashMap<>();
+    final Compiler<T> compiler;
+
+    public ScriptSourceCache(Compiler<T> compiler) {
+        this.compiler = compiler;
+    }
+
+    /**
+     * @return the compiled script, or null if path is not a readable file so
+     * that callers can fall back to the engine's own load.
+     */
+    public T get(String path) throws IOException, ScriptException {
+        File file = new File(path);
+        if (!file.isFile())
+            return null;
+        file = file.getCanonicalFile();
+        String key = file.getPath();
+        long lastModified = file.lastModified();
+        Entry<T> entry = sources.get(key);
+        if (entry != null && entry.lastModified == lastModified)
+            return entry.source;
+
+        T source = compiler.compile(file);
+        sources.put(key, new Entry<>(lastModified, source));
+        return source;
+    }
+
+    public int size() {
+        return sources.size();
+    }
+
+    public void clear() {
+        sources.clear();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript.graal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import my.com.solutionx.simplyscript.JsonArrayView;
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyArray;
+
+/**
+ * JSON array argument as a guest array whose elements are converted on
+ * access, see JsonArrayView.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+public class JsonArrayProxy extends JsonArrayView implements ProxyArray {
+
+    public JsonArrayProxy(ArrayNode node) {
+        super(node);
+    }
+
+    @Override
+    protected Object view(JsonNode value) {
+        return JsonObjectProxy.of(value);
+    }
+
+    @Override
+    public Object get(long index) {
+        if (index < 0 || index >= size())
+            throw new ArrayIndexOutOfBoundsException((int)index);
+        return get((int)index);
+    }
+
+    @Override
+    public void set(long index, Value value) {
+        if (index == size())
+            add(JsonObjectProxy.unwrap(value));
+        else
+            set((int)index, JsonObjectProxy.unwrap(value));
+    }
+
+    @Override
+    public boolean remove(long index) {
+        if (index < 0 || index >= size())
+            return false;
+        remove((int)index);
+        return true;
+    }
+
+    @Override
+    public long getSize() {
+        return size();
+    }
+}
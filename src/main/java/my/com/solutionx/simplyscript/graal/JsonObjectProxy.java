@@ -0,0 +1,104 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript.graal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.ArrayList;
+import my.com.solutionx.simplyscript.JsonObjectView;
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyArray;
+import org.graalvm.polyglot.proxy.ProxyObject;
+
+/**
+ * JSON object argument as a guest object whose members are converted on
+ * access, see JsonObjectView.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+public class JsonObjectProxy extends JsonObjectView implements ProxyObject {
+
+    public JsonObjectProxy(ObjectNode node) {
+        super(node);
+    }
+
+    static Object of(JsonNode value) {
+        if (value.isObject())
+            return new JsonObjectProxy((ObjectNode)value);
+        if (value.isArray())
+            return new JsonArrayProxy((ArrayNode)value);
+        return scalar(value);
+    }
+
+    /**
+     * Values that scripts store are kept as Java values where there is one,
+     * so that the view stays usable as a plain Map from Java.
+     */
+    static Object unwrap(Value value) {
+        if (value == null || value.isNull())
+            return null;
+        if (value.isHostObject())
+            return value.asHostObject();
+        if (value.isProxyObject())
+            return value.asProxyObject();
+        if (value.isString())
+            return value.asString();
+        if (value.isBoolean())
+            return value.asBoolean();
+        if (value.isNumber()) {
+            if (value.fitsInInt())
+                return value.asInt();
+            if (value.fitsInLong())
+                return value.asLong();
+            return value.asDouble();
+        }
+        return value;
+    }
+
+    @Override
+    protected Object view(JsonNode value) {
+        return of(value);
+    }
+
+    @Override
+    public Object getMember(String key) {
+        return get(key);
+    }
+
+    @Override
+    public Object getMemberKeys() {
+        return ProxyArray.fromList(new ArrayList<>(keySet()));
+    }
+
+    @Override
+    public boolean hasMember(String key) {
+        return containsKey(key);
+    }
+
+    @Override
+    public void putMember(String key, Value value) {
+        put(key, unwrap(value));
+    }
+
+    @Override
+    public boolean removeMember(String key) {
+        if (!containsKey(key))
+            return false;
+        remove(key);
+        return true;
+    }
+}
@@ -15,18 +15,26 @@
  */
 package my.com.solutionx.simplyscript.graal;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.net.MalformedURLException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.function.Function;
 import javax.script.ScriptException;
+import my.com.solutionx.simplyscript.ActionMetrics;
+import my.com.solutionx.simplyscript.Interceptors;
+import my.com.solutionx.simplyscript.MetricsAggregator;
 import my.com.solutionx.simplyscript.ScriptContextInterface;
+import my.com.solutionx.simplyscript.ScriptEngineInterface;
 import my.com.solutionx.simplyscript.ScriptService;
+import my.com.solutionx.simplyscript.ScriptServiceProvider;
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyExecutable;
 
 /**
  *
@@ -37,6 +45,13 @@ public class ScriptContext implements ScriptContextInterface{
     Map<String, Object> request = new HashMap<>();
     Map<String, Object> externalReq = null;
     final Context ctx;
+    Value originalLoad = null;
+    Value ctxValue = null;
+    // own ctx_prototype, services and modules when the engine is context_affine
+    Value ctxPrototype = null;
+    Map<String, Value> services = null;
+    Map<String, Value> modules = null;
+    int modulesGeneration = -1;
 
     ScriptContext(ScriptEngine global, HostAccess hostAccess, ClassLoader classLoader) {
         this.global = new WeakReference<>(global);
@@ -48,9 +63,63 @@ public class ScriptContext implements ScriptContextInterface{
                 .allowIO(true).build();
     }
 
+    /**
+     * Replaces the global load() so that files are parsed once per Engine
+     * through the shared source cache instead of once per context.
+     */
+    void installLoad() {
+        Value jsBindings = ctx.getBindings("js");
+        originalLoad = jsBindings.getMember("load");
+        jsBindings.putMember("load", (ProxyExecutable) this::load);
+    }
+
+    Value load(Value... arguments) {
+        if (arguments.length > 0 && arguments[0].isString()) {
+            try {
+                Source source = global.get().sources.get(arguments[0].asString());
+                if (source != null)
+                    return ctx.eval(source);
+            } catch (IOException | ScriptException e) {
+                throw new RuntimeException("Cannot load script: " + arguments[0].asString(), e);
+            }
+        }
+        return originalLoad.execute((Object[])arguments);
+    }
+
+    /**
+     * With context_affine, ctx_prototype is evaluated in this context and the
+     * preload services are set up here as well, so that their hooks run on
+     * every call; other services and modules are set up on first use.
+     */
     @Override
     public void init() throws ScriptException {
-        ctx.eval(this.global.get().initScript);
+        ScriptEngine engine = this.global.get();
+        ctx.eval(engine.initScript);
+        ValueSerializer.install(ctx);
+        if (!engine.contextAffine || engine.ctx == this)
+            return;
+        ctxPrototype = engine.prototype(this);
+        services = new HashMap<>();
+        modules = new HashMap<>();
+        List<String> preload = engine.scriptService.get().getServicePreload();
+        if (!preload.isEmpty()) {
+            Value ctxObject = ctxConstructor().execute(this);
+            for (String name : preload)
+                service(name, ctxObject);
+            recycle();
+        }
+    }
+
+    Value ctxObject() {
+        return ctxPrototype != null ? ctxPrototype.getArrayElement(0) : global.get().ctxObject();
+    }
+
+    Value ctxConstructor() {
+        return ctxPrototype != null ? ctxPrototype.getArrayElement(1) : global.get().ctxConstructor();
+    }
+
+    Value ctxReset() {
+        return ctxPrototype != null ? ctxPrototype.getArrayElement(2) : global.get().ctxReset();
     }
 
     /*
@@ -84,11 +153,47 @@ public class ScriptContext implements ScriptContextInterface{
     }
 
     public Object module(String key, Object ctx) {
-        return global.get().modules().get(key, (String k) -> {
-            Value ctxObject = global.get().ctxObject();
-            Value setupScript = ctxObject.getMember("moduleSetup");
-            return setupScript.execute(key, global.get().system(), ctx);
-        });
+        if (modules == null)
+            return global.get().modules().get(key, (String k) -> setupModule(key, ctx));
+
+        // the shared cache only records which modules are set up, so that
+        // dropping one from it still bumps the generation
+        int generation = moduleGeneration();
+        if (generation != modulesGeneration) {
+            modules.clear();
+            modulesGeneration = generation;
+        }
+        Value module = modules.get(key);
+        if (module == null) {
+            module = setupModule(key, ctx);
+            if (module == null || module.isNull())
+                return null;
+            modules.put(key, module);
+            global.get().modules().get(key, (String k) -> Boolean.TRUE);
+        }
+        return module;
+    }
+
+    Value setupModule(String key, Object ctx) {
+        Value setupScript = ctxObject().getMember("moduleSetup");
+        return setupScript.execute(key, global.get().system(), ctx);
+    }
+
+    public int moduleGeneration() {
+        return global.get().scriptService.get().moduleGeneration();
+    }
+
+    /**
+     * Calls made while warming up a context are not recorded.
+     */
+    public ActionMetrics metrics() {
+        if (externalReq != null && externalReq.containsKey(ScriptEngineInterface.WARMUP))
+            return ActionMetrics.DISABLED;
+        return global.get().scriptService.get().metrics();
+    }
+
+    public MetricsAggregator newMetricsAggregator(Map<String, Object> config, MetricsAggregator.Sink sink) {
+        return global.get().scriptService.get().newMetricsAggregator(config, sink, this);
     }
 
     public boolean isPrivileged(String uniqueid) {
@@ -96,19 +201,52 @@ public class ScriptContext implements ScriptContextInterface{
         return scriptService.isPrivilegedService(uniqueid);
     }
 
+    public Object shared(String key, Function<String, Object> factory) {
+        return global.get().scriptService.get().shared(key, factory);
+    }
+
+    public ScriptServiceProvider serviceProvider(String name) {
+        return global.get().scriptService.get().getServiceProvider(name);
+    }
+
+    public Object javaService(ScriptServiceProvider provider) throws Exception {
+        return global.get().scriptService.get().javaService(provider);
+    }
+
+    public int hookGeneration() {
+        return global.get().scriptService.get().interceptors().generation();
+    }
+
+    public Interceptors.Hook[] hooks(String kind) {
+        return global.get().scriptService.get().interceptors().chain(kind);
+    }
+
+    /**
+     * Adds the hook of a script service; the function stays in ctx_prototype.
+     */
+    public Interceptors.Hook addHook(String service, String kind, int priority, boolean inner) {
+        return global.get().scriptService.get().interceptors().add(service, kind, priority, inner, null);
+    }
+
+    public Interceptors.Hook addProviderHook(String service, String kind, int priority, ScriptServiceProvider provider) {
+        return global.get().scriptService.get().interceptors().add(service, kind, priority, provider);
+    }
+
+    /**
+     * What scripts get for a value from Java, e.g. the user that a Java
+     * service hook returns: a JsonNode is viewed as an object.
+     */
+    public Object view(Object value) {
+        return ScriptEngine.scriptArgs(value);
+    }
+
     public Object service(String key, Object ctx) throws ScriptException {
-        Value obj = (Value)global.get().service(key);
+        Value obj = services != null ? services.get(key) : (Value)global.get().service(key);
         if (obj == null) {
-            Value ctxObject = global.get().ctxObject();
+            Value ctxObject = ctxObject();
             Value setupScript = ctxObject.getMember("serviceSetup");
-            String uuid = UUID.randomUUID().toString();
-            ScriptService scriptService = global.get().scriptService.get();
-            Map<String, Object> mapScriptConfig = scriptService.getScriptConfig();
-            Map<String, Object> mapServiceConfig = (Map<String, Object>) mapScriptConfig.get("service");
-            List lstPrivileged = (List)mapServiceConfig.get("privilegedServices");
-            if (lstPrivileged != null && lstPrivileged.contains(key)) {
-                scriptService.addPrivilegedService(uuid);
-            }
+            // one uniqueid per service, however many contexts set it up
+            String uuid = global.get().scriptService.get().serviceUniqueId(key);
 /*
             if (v != null && !v.isNull()) {
                 for (long i=0; i<v.getArraySize(); i++) {
@@ -119,7 +257,10 @@ public class ScriptContext implements ScriptContextInterface{
             if (ret == null) //  || ret.getClass() == Undefined.class)
                 throw new RuntimeException("Service cannot be setup: " + key);
             obj = (Value) ret;
-            global.get().service(key, obj);
+            if (services != null)
+                services.put(key, obj);
+            else
+                global.get().service(key, obj);
         }
         return obj;
     }
@@ -142,9 +283,14 @@ public class ScriptContext implements ScriptContextInterface{
 
     public void recycle() {
         request.clear();
+        externalReq = null;
     }
 
     public void cleanup() {
+        ctxValue = null;
+        ctxPrototype = null;
+        services = null;
+        modules = null;
         request.clear();
         request = null;
         global.clear();
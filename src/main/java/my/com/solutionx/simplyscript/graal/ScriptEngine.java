@@ -15,23 +15,32 @@
  */
 package my.com.solutionx.simplyscript.graal;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.github.benmanes.caffeine.cache.Cache;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.ref.WeakReference;
 import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Callable;
 import javax.script.ScriptException;
 import my.com.solutionx.simplyscript.PoolableScriptContext;
+import my.com.solutionx.simplyscript.ResponseBuffer;
+import my.com.solutionx.simplyscript.ResultStream;
 import my.com.solutionx.simplyscript.ScriptContextInterface;
 import my.com.solutionx.simplyscript.ScriptEngineInterface;
 import my.com.solutionx.simplyscript.ScriptService;
+import my.com.solutionx.simplyscript.ScriptSourceCache;
 import stormpot.PoolException;
 
 import org.graalvm.polyglot.Engine;
@@ -39,7 +48,6 @@ import org.graalvm.polyglot.HostAccess;
 import org.graalvm.polyglot.PolyglotException;
 import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.Value;
-import stormpot.Timeout;
 
 /**
  *
@@ -52,11 +60,31 @@ public class ScriptEngine implements ScriptEngineInterface {
     Source initScript = null;
     private Value ctxObject;
     private Value ctxConstructor;
+    private Value ctxReset;
+    Source ctxPrototypeScript = null;
+    Map<String, Object> mapScriptConfig = null;
+    // services and modules set up in every context instead of once, see
+    // ScriptContext.init
+    boolean contextAffine = false;
+    // bytes of a response document held until its context is released
+    int responseBuffer = 65536;
     HostAccess hostAccess = null;
+    final ObjectMapper mapper = newMapper();
+    ScriptSourceCache<Source> sources = new ScriptSourceCache<>((file) -> Source.newBuilder("js", file).build());
     String scripts_path = null;
     String config_path = null;
     String working_path = null;
 
+    static ObjectMapper newMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        SimpleModule module = new SimpleModule();
+        module.addSerializer(new ValueSerializer(Value.class));
+        mapper.registerModule(module);
+        // callers own the stream (e.g. the HTTP response), so leave it open
+        mapper.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return mapper;
+    }
+
     @Override
     public void init(ScriptService scriptService, Map<String, Object> mapScriptConfig) throws ScriptException, IOException {
         this.scriptService = new WeakReference<>(scriptService);
@@ -64,6 +92,11 @@ public class ScriptEngine implements ScriptEngineInterface {
         scripts_path = config.get("scripts_path");
         config_path = config.get("config_path");
         working_path = config.get("working_path");
+        contextAffine = Boolean.parseBoolean(config.getOrDefault("context_affine", "false"));
+        responseBuffer = Integer.parseInt(config.getOrDefault("response_buffer", "65536"));
+        // ctx_prototype's config() stores script objects into the map it is
+        // given, so every context gets its own copy of the map as it is now
+        this.mapScriptConfig = (Map<String, Object>)copyConfig(mapScriptConfig);
 
         initScript = Source.newBuilder("js", new File(scripts_path + "init.js")).build();
         engine = Engine.create();
@@ -95,13 +128,39 @@ public class ScriptEngine implements ScriptEngineInterface {
                 .allowIO(true).build();
         ctx.eval(initScript);
 */
-        Source setupEnvScript = Source.newBuilder("js", new File(scripts_path + "system/ctx_prototype.js")).build();
-        Value value = ctx.ctx.eval(setupEnvScript);
+        ctxPrototypeScript = Source.newBuilder("js", new File(scripts_path + "system/ctx_prototype.js")).build();
+        Value ctxProtoRet = ctx.ctx.eval(ctxPrototypeScript).execute();
+        ctxProtoRet.getArrayElement(0).getMember("config").execute(mapScriptConfig);
 //        ctxObject = (ScriptObjectMirror)ctxFactoryRet;
-        Value ctxProtoRet = value.execute();
         ctxObject = ctxProtoRet.getArrayElement(0);
         ctxConstructor = ctxProtoRet.getArrayElement(1);
-        ctxObject.getMember("config").execute(mapScriptConfig);
+        ctxReset = ctxProtoRet.getArrayElement(2);
+    }
+
+    /**
+     * Evaluates ctx_prototype in the context and returns its [ctxObject,
+     * newContext, resetContext].
+     */
+    Value prototype(ScriptContext scriptContext) {
+        Value ctxProtoRet = scriptContext.ctx.eval(ctxPrototypeScript).execute();
+        ctxProtoRet.getArrayElement(0).getMember("config").execute(copyConfig(mapScriptConfig));
+        return ctxProtoRet;
+    }
+
+    static Object copyConfig(Object value) {
+        if (value instanceof Map) {
+            Map<Object, Object> copy = new HashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet())
+                copy.put(entry.getKey(), copyConfig(entry.getValue()));
+            return copy;
+        }
+        if (value instanceof List) {
+            List<Object> copy = new ArrayList<>();
+            for (Object item : (List<?>)value)
+                copy.add(copyConfig(item));
+            return copy;
+        }
+        return value;
     }
 
     @Override
@@ -111,6 +170,7 @@ public class ScriptEngine implements ScriptEngineInterface {
         jsBindings.putMember("scripts_path", scripts_path);
         jsBindings.putMember("config_path", config_path);
         jsBindings.putMember("working_path", working_path);
+        scriptContext.installLoad();
         // scriptContext.ctx.eval("js", "var scripts_path='" + scripts_path + "'");
         return scriptContext;
     }
@@ -122,11 +182,11 @@ public class ScriptEngine implements ScriptEngineInterface {
 
     @Override
     public Object getService(String name) throws ScriptException, PoolException, InterruptedException {
-        Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
-        PoolableScriptContext scriptContext = scriptService.get().getScriptContextPool().claim(timeout);
+        PoolableScriptContext scriptContext = scriptService.get().claimScriptContext();
         try {
             // Value ctx = (Value)ctxObject.newInstance(scriptContext.getScriptContext());
-            Value ctx = ctxConstructor.execute(scriptContext.getScriptContext());
+            ScriptContext context = (ScriptContext)scriptContext.getScriptContext();
+            Value ctx = context.ctxConstructor().execute(context);
             Value callable = ctx.getMember("service");
             return callable.execute(name);
         } finally {
@@ -138,11 +198,11 @@ public class ScriptEngine implements ScriptEngineInterface {
 
     @Override
     public void loadServices(List<String> services) throws ScriptException, PoolException, InterruptedException {
-        Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
-        PoolableScriptContext scriptContext = scriptService.get().getScriptContextPool().claim(timeout);
+        PoolableScriptContext scriptContext = scriptService.get().claimScriptContext();
         try {
             // Value ctx = (Value)ctxObject.newInstance(scriptContext.getScriptContext());
-            Value ctx = ctxConstructor.execute(scriptContext.getScriptContext());
+            ScriptContext context = (ScriptContext)scriptContext.getScriptContext();
+            Value ctx = context.ctxConstructor().execute(context);
             Value callable = ctx.getMember("service");
             for (String name : services)
                 callable.execute(name);
@@ -155,11 +215,11 @@ public class ScriptEngine implements ScriptEngineInterface {
 
     @Override
     public void loadModules(List<String> modules) throws ScriptException, PoolException, InterruptedException {
-        Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
-        PoolableScriptContext scriptContext = scriptService.get().getScriptContextPool().claim(timeout);
+        PoolableScriptContext scriptContext = scriptService.get().claimScriptContext();
         try {
             // Value ctx = (Value)ctxObject.newInstance(scriptContext.getScriptContext());
-            Value ctx = ctxConstructor.execute(scriptContext.getScriptContext());
+            ScriptContext context = (ScriptContext)scriptContext.getScriptContext();
+            Value ctx = context.ctxConstructor().execute(context);
             Value callable = ctx.getMember("module");
             for (String name : modules)
                 callable.execute(name);
@@ -172,11 +232,11 @@ public class ScriptEngine implements ScriptEngineInterface {
 
     @Override
     public Object getModule(String name) throws ScriptException, PoolException, InterruptedException {
-        Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
-        PoolableScriptContext scriptContext = scriptService.get().getScriptContextPool().claim(timeout);
+        PoolableScriptContext scriptContext = scriptService.get().claimScriptContext();
         try {
             // Value ctx = (Value)ctxObject.newInstance(scriptContext.getScriptContext());
-            Value ctx = ctxConstructor.execute(scriptContext.getScriptContext());
+            ScriptContext context = (ScriptContext)scriptContext.getScriptContext();
+            Value ctx = context.ctxConstructor().execute(context);
             Value callable = ctx.getMember("module");
             return callable.execute(name);
         } finally {
@@ -188,21 +248,9 @@ public class ScriptEngine implements ScriptEngineInterface {
 
     @Override
     public Map<String, Object> action(String action, Object args, Map<String,Object> mapReq) throws ScriptException, PoolException, InterruptedException {
-        Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
-        PoolableScriptContext scriptContext = scriptService.get().getScriptContextPool().claim(timeout);
-        scriptContext.getScriptContext().setRequest(mapReq);
-
+        PoolableScriptContext scriptContext = scriptService.get().claimScriptContext(action, mapReq);
         try {
-            // Value ctx = (Value)ctxObject.newInstance(scriptContext.getScriptContext());
-            Value ctx = ctxConstructor.execute(scriptContext.getScriptContext());
-            Value callable = ctx.getMember("call");
-            Value ret = callable.execute(action, args);
-            Map<String, Object> map = (Map<String, Object>) scriptContext.getScriptContext().req(OTHER_RETURN_DATA);
-            if (map == null)
-                map = new HashMap<>();
-            if (ret != null && !ret.isNull())
-                map.put("data", ret);
-            return map;
+            return action(scriptContext.getScriptContext(), action, args, mapReq);
         } finally {
             if (scriptContext != null) {
               scriptContext.release();
@@ -211,17 +259,124 @@ public class ScriptEngine implements ScriptEngineInterface {
     }
 
     @Override
-    public String actionReturnString(String action, Object args, Map<String,Object> mapReq) throws ScriptException, PoolException, InterruptedException, JsonProcessingException {
+    public Map<String, Object> action(ScriptContextInterface scriptContext, String action, Object args, Map<String,Object> mapReq) throws ScriptException {
+        Value ctx = requestContext(scriptContext, mapReq);
+        return result(scriptContext, ctx.invokeMember("call", action, scriptArgs(args)));
+    }
+
+    @Override
+    public Map<String, Object> batch(List<Map<String, Object>> items, boolean transaction, boolean continueOnError, Map<String,Object> mapReq) throws ScriptException, PoolException, InterruptedException {
+        PoolableScriptContext scriptContext = scriptService.get().claimBatchContext(items, mapReq);
         try {
-            Map<String, Object> ret = action(action, args, mapReq);
+            return batch(scriptContext.getScriptContext(), items, transaction, continueOnError, mapReq);
+        } finally {
+            if (scriptContext != null) {
+              scriptContext.release();
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Object> batch(ScriptContextInterface scriptContext, List<Map<String, Object>> items, boolean transaction, boolean continueOnError, Map<String,Object> mapReq) throws ScriptException {
+        String[] actions = new String[items.size()];
+        Object[] args = new Object[items.size()];
+        for (int i=0; i<actions.length; i++) {
+            actions[i] = (String)items.get(i).get("action");
+            args[i] = scriptArgs(items.get(i).get("args"));
+        }
+        Value ctx = requestContext(scriptContext, mapReq);
+        return result(scriptContext, ctx.invokeMember("batch", actions, args, transaction, continueOnError));
+    }
 
-            ObjectMapper mapper = new ObjectMapper();
-            SimpleModule module = new SimpleModule();
-            module.addSerializer(new ValueSerializer(Value.class));
-            mapper.registerModule(module);
+    Value requestContext(ScriptContextInterface scriptContext, Map<String,Object> mapReq) {
+        scriptContext.setRequest(mapReq);
+        // Value ctx = (Value)ctxObject.newInstance(scriptContext);
+        // the ctx object is built once per context and reset for each request
+        ScriptContext context = (ScriptContext)scriptContext;
+        Value ctx = context.ctxValue;
+        Object user = mapReq == null ? null : mapReq.get(USER);
+        if (ctx == null) {
+            ctx = context.ctxValue = context.ctxConstructor().execute(scriptContext);
+            if (user == null)
+                return ctx;
+        }
+        context.ctxReset().execute(ctx, scriptArgs(user));
+        return ctx;
+    }
+
+    Map<String, Object> result(ScriptContextInterface scriptContext, Value ret) {
+        Map<String, Object> map = (Map<String, Object>) scriptContext.req(OTHER_RETURN_DATA);
+        if (map == null)
+            map = new HashMap<>();
+        if (ret != null && !ret.isNull())
+            map.put("data", ret);
+        return map;
+    }
+
+    interface ContextClaim {
+        PoolableScriptContext claim() throws Exception;
+    }
+
+    interface ContextCall {
+        Map<String, Object> call(ScriptContextInterface scriptContext) throws Exception;
+    }
+
+    /**
+     * Runs call on the context from claim and writes the response
+     * document, including the success flag, or the error document if the
+     * call failed. Script values in it can only be read in their context, so
+     * it is serialized while the context is held, into a ResponseBuffer of
+     * up to response_buffer bytes that is written to out after the context
+     * is released, so that a slow client does not hold the context; larger
+     * documents are streamed to out as they are serialized. A ResultStream's
+     * rows are Java objects and are only read while writing.
+     */
+    void respond(ContextClaim claim, Map<String,Object> mapReq, ContextCall call, OutputStream out) throws IOException {
+        PoolableScriptContext scriptContext = null;
+        try {
+            Map<String, Object> ret;
+            try {
+                scriptContext = claim.claim();
+                ScriptContextInterface claimed = scriptContext.getScriptContext();
+                ret = response(() -> call.call(claimed));
+            } catch (Exception e) {
+                ret = errorResult(e);
+            }
+            ResultStream stream = resultStream(ret.get("data"));
+            ResponseBuffer buffer = null;
+            if (stream == null) {
+                buffer = new ResponseBuffer(out, responseBuffer);
+                mapper.writeValue(buffer, ret);
+            } else {
+                for (Map.Entry<String, Object> entry : ret.entrySet()) {
+                    if (entry.getValue() instanceof Value) {
+                        Value value = (Value)entry.getValue();
+                        entry.setValue(value.isHostObject() ? value.asHostObject() : mapper.valueToTree(value));
+                    }
+                }
+            }
+            if (scriptContext != null) {
+                scriptContext.release();
+                scriptContext = null;
+            }
+            if (buffer != null)
+                buffer.finish();
+            else if (FORMAT_NDJSON.equals(mapReq.get(RESPONSE_FORMAT)))
+                stream.writeNdjson(mapper, ret, out);
+            else
+                mapper.writeValue(out, ret);
+        } finally {
+            if (scriptContext != null)
+                scriptContext.release();
+            ResultStream.closeAll(mapReq);
+        }
+    }
 
+    Map<String, Object> response(Callable<Map<String, Object>> call) {
+        try {
+            Map<String, Object> ret = call.call();
             ret.put("success", true);
-            return mapper.writeValueAsString(ret);
+            return ret;
         } catch (PolyglotException e) {
             String out = e.getMessage();
 
@@ -232,25 +387,68 @@ public class ScriptEngine implements ScriptEngineInterface {
             Value errorObject = e.getGuestObject();
             if (errorObject != null) {
                 Value code = errorObject.getMember("code");
-                if (code != null)
+                if (code != null && !code.isNull())
                     map.put("code", code.asString());
                 Value actionIn = errorObject.getMember("action");
-                if (actionIn != null)
+                if (actionIn != null && !actionIn.isNull())
                     map.put("action", actionIn.asString());
             }
-            ObjectMapper mapper = new ObjectMapper();
-            return mapper.writeValueAsString(map);
+            return map;
         } catch (Exception e) {
-            String out = e.getMessage(); // String.format("%s:%s:%s%n", "Error calling action",
-                    // e.getMessage(), e.getClass().getName());
-            ObjectMapper mapper = new ObjectMapper();
-            Map<String, Object> map = new HashMap<>();
-            map.put("success", false);
-            map.put("message", out);
-            return mapper.writeValueAsString(map);
+            return errorResult(e);
         }
     }
 
+    Map<String, Object> errorResult(Exception e) {
+        String out = e.getMessage(); // String.format("%s:%s:%s%n", "Error calling action",
+                // e.getMessage(), e.getClass().getName());
+        Map<String, Object> map = new HashMap<>();
+        map.put("success", false);
+        map.put("message", out);
+        return map;
+    }
+
+    @Override
+    public String actionReturnString(String action, Object args, Map<String,Object> mapReq) throws ScriptException, PoolException, InterruptedException, JsonProcessingException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            actionWriteTo(action, args, mapReq, out);
+        } catch (IOException e) {
+            return mapper.writeValueAsString(errorResult(e));
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void actionWriteTo(String action, Object args, Map<String,Object> mapReq, OutputStream out) throws ScriptException, PoolException, InterruptedException, IOException {
+        Map<String, Object> req = mapReq == null ? new HashMap<>() : mapReq;
+        respond(() -> scriptService.get().claimScriptContext(action, req), req, (scriptContext) -> action(scriptContext, action, args, req), out);
+    }
+
+    @Override
+    public void batchWriteTo(List<Map<String, Object>> items, boolean transaction, boolean continueOnError, Map<String,Object> mapReq, OutputStream out) throws ScriptException, PoolException, InterruptedException, IOException {
+        Map<String, Object> req = mapReq == null ? new HashMap<>() : mapReq;
+        respond(() -> scriptService.get().claimBatchContext(items, req), req, (scriptContext) -> batch(scriptContext, items, transaction, continueOnError, req), out);
+    }
+
+    /**
+     * Request bodies parsed into a Jackson tree are handed to scripts as
+     * views that convert members on access; other arguments as they are.
+     */
+    static Object scriptArgs(Object args) {
+        return args instanceof JsonNode ? JsonObjectProxy.of((JsonNode)args) : args;
+    }
+
+    static ResultStream resultStream(Object data) {
+        if (data instanceof Value && ((Value)data).isHostObject())
+            data = ((Value)data).asHostObject();
+        return data instanceof ResultStream ? (ResultStream)data : null;
+    }
+
+    public ObjectMapper mapper() {
+        return mapper;
+    }
+
     public Map<String, Object> app() {
         return scriptService.get().app();
     }
@@ -314,7 +512,25 @@ public class ScriptEngine implements ScriptEngineInterface {
     Value ctxObject() {
         return ctxObject;
     }
-    
+
+    Value ctxConstructor() {
+        return ctxConstructor;
+    }
+
+    Value ctxReset() {
+        return ctxReset;
+    }
+
+    /**
+     * By default ctx_prototype, services and modules live in the bootstrap
+     * context, which only one thread may enter at a time. With
+     * context_affine every context has its own.
+     */
+    @Override
+    public boolean isMultiThreaded() {
+        return contextAffine;
+    }
+
     public void addClasspath(String path)  throws MalformedURLException {
         scriptService.get().addClasspath(path);
     }
@@ -328,7 +544,12 @@ public class ScriptEngine implements ScriptEngineInterface {
             ctx.cleanup();
         ctx = null;
         initScript = null;
+        sources.clear();
         ctxObject = null;
+        ctxConstructor = null;
+        ctxReset = null;
+        ctxPrototypeScript = null;
+        mapScriptConfig = null;
         hostAccess = null;
         if (engine != null)
             engine.close();
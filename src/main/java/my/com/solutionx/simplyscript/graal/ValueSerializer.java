@@ -19,36 +19,105 @@ import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 import java.io.IOException;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.Value;
 
+/**
+ * Serializes script values. Plain script objects and arrays are turned into
+ * JSON inside their context by JSON.stringify (see TO_JSON), which is one
+ * host call instead of one per member; only when they hold host or foreign
+ * objects (Java maps, BigDecimal, dates, other contexts' values) are they
+ * walked member by member here, each member again trying the fast path, so
+ * that those objects are written by Jackson.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
 public class ValueSerializer extends StdSerializer<Value> {
+    // global binding of the TO_JSON function in every context, see install
+    static final String TO_JSON_BINDING = "__ss_toJson";
+    // undefined members are written as null, like the member walk does; a
+    // host or foreign value, or anything that JSON.stringify rejects (e.g. a
+    // cycle or BigInt), gives null so that the caller walks the value
+    static final Source TO_JSON = Source.create("js",
+            "(function() {\n" +
+            "  var HOST = {};\n" +
+            "  function replacer(key, value) {\n" +
+            "    if (typeof value !== 'object')\n" +
+            "      return value === undefined ? null : value;\n" +
+            "    if (value === null || value instanceof Object)\n" +
+            "      return value;\n" +
+            "    throw HOST;\n" +
+            "  }\n" +
+            "  return function(value) {\n" +
+            "    try {\n" +
+            "      return JSON.stringify(value, replacer);\n" +
+            "    } catch (e) {\n" +
+            "      return null;\n" +
+            "    }\n" +
+            "  };\n" +
+            "})()");
+    // the format of Date.prototype.toISOString, which JSON.stringify uses
+    static final DateTimeFormatter ISO_DATE = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+    final boolean fastPath;
 
     public ValueSerializer() {
         this(null);
     }
 
-    public ValueSerializer(Class t) {
-        super(t);
+    public ValueSerializer(Class<?> t) {
+        this(t, true);
+    }
+
+    public ValueSerializer(Class<?> t, boolean fastPath) {
+        super(t, false);
+        this.fastPath = fastPath;
+    }
+
+    /**
+     * Makes the JSON.stringify fast path available to values of ctx. Not on
+     * an interpreter only engine (no Graal compiler, e.g. a stock JDK without
+     * the JVMCI compiler), where the replacer calls make it slower than the
+     * member walk.
+     */
+    public static void install(Context ctx) {
+        if (!"Interpreted".equals(ctx.getEngine().getImplementationName()))
+            bind(ctx);
+    }
+
+    static void bind(Context ctx) {
+        ctx.getBindings("js").putMember(TO_JSON_BINDING, ctx.eval(TO_JSON));
+    }
+
+    static String toJson(Value t) {
+        Context context = t.getContext();
+        if (context == null)
+            return null;
+        Value toJson = context.getBindings("js").getMember(TO_JSON_BINDING);
+        if (toJson == null || !toJson.canExecute())
+            return null;
+        Value json = toJson.execute(t);
+        return json.isString() ? json.asString() : null;
+    }
+
+    boolean writeJson(Value t, JsonGenerator jg) throws IOException {
+        if (!t.hasArrayElements() && !t.hasMembers())
+            return false;
+        String json = toJson(t);
+        if (json == null)
+            return false;
+        jg.writeRawValue(json);
+        return true;
     }
 
     @Override
     public void serialize(Value t, JsonGenerator jg, SerializerProvider sp) throws IOException {
-        if (t.hasArrayElements()) {
-            long arraySize = t.getArraySize();
-            jg.writeStartArray(arraySize);
-            for (int i=0; i<arraySize; i++) {
-                jg.writeObject(t.getArrayElement(i));
-            }
-            jg.writeEndArray();
-        } else if (t.isHostObject()) {
-            jg.writeObject(t.asHostObject());
-        } else if (t.hasMembers()) {
-            jg.writeStartObject();
-            for (String key : t.getMemberKeys()) {
-                jg.writeFieldName(key);
-                jg.writeObject(t.getMember(key));
-            }
-            jg.writeEndObject();
+        // scalars first, they are most of the values in a result
+        if (t.isString()) {
+            jg.writeString(t.asString());
         } else if (t.isNumber()) {
             if (t.fitsInLong())
                 jg.writeNumber(t.asLong());
@@ -60,8 +129,28 @@ public class ValueSerializer extends StdSerializer<Value> {
             jg.writeBoolean(t.asBoolean());
         } else if (t.isNull()) {
             jg.writeNull();
+        } else if (t.isHostObject()) {
+            sp.defaultSerializeValue(t.asHostObject(), jg);
+        } else if (t.isInstant()) {
+            jg.writeString(ISO_DATE.format(t.asInstant()));
+        } else if (fastPath && !t.isProxyObject() && writeJson(t, jg)) {
+            // plain script object or array, written by JSON.stringify
+        } else if (t.hasArrayElements()) {
+            long arraySize = t.getArraySize();
+            jg.writeStartArray(arraySize);
+            for (int i=0; i<arraySize; i++) {
+                sp.defaultSerializeValue(t.getArrayElement(i), jg);
+            }
+            jg.writeEndArray();
+        } else if (t.hasMembers()) {
+            jg.writeStartObject();
+            for (String key : t.getMemberKeys()) {
+                jg.writeFieldName(key);
+                sp.defaultSerializeValue(t.getMember(key), jg);
+            }
+            jg.writeEndObject();
         } else {
-            jg.writeString(t.asString());
+            jg.writeString(t.toString());
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript.jwt;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import my.com.solutionx.simplyscript.ScriptServiceException;
+import org.jose4j.jws.AlgorithmIdentifiers;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwt.JwtClaims;
+import org.jose4j.jwt.MalformedClaimException;
+import org.jose4j.jwt.consumer.InvalidJwtException;
+import org.jose4j.jwt.consumer.JwtConsumer;
+import org.jose4j.jwt.consumer.JwtConsumerBuilder;
+import org.jose4j.keys.HmacKey;
+import org.jose4j.lang.JoseException;
+
+/**
+ * The jwt service in Java: HS256 tokens whose "data" claim is the JSON of
+ * the user, with the same initArguments (secret, issuer, expiration in
+ * minutes) and tokens as services/jwt/index.js. The key and the consumer are
+ * built once and used by every thread.
+ *
+ * The users of verified tokens are kept until the token expires, keyed by
+ * the SHA-256 of the token, at most cache_size (default 10000) of them, so
+ * that a client's repeated requests are checked with one lookup instead of
+ * an HMAC and a JSON parse each.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+public class JwtService {
+    static final ObjectMapper mapper = new ObjectMapper();
+
+    final HmacKey key;
+    final String issuer;
+    final float expiration;
+    final JwtConsumer consumer;
+    final Cache<String, Verified> verified;
+
+    static class Verified {
+        final JsonNode user;
+        final long expiresAt;
+
+        Verified(JsonNode user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    static class ExpiresAt implements Expiry<String, Verified> {
+        @Override
+        public long expireAfterCreate(String key, Verified value, long currentTime) {
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, value.expiresAt - System.currentTimeMillis()));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Verified value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, Verified value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+
+    public JwtService(Map<String, Object> args) throws ScriptServiceException {
+        Object secret = args.get("secret");
+        if (secret == null || secret.toString().isEmpty())
+            throw new ScriptServiceException("JWT key is not defined", "E_JWTINVALIDKEY");
+        key = new HmacKey(secret.toString().getBytes(StandardCharsets.UTF_8));
+        Object argIssuer = args.get("issuer");
+        issuer = argIssuer != null ? argIssuer.toString() : "solutionx";
+        Object argExpiration = args.get("expiration");
+        expiration = argExpiration instanceof Number ? ((Number)argExpiration).floatValue() : 30;
+        consumer = new JwtConsumerBuilder()
+                .setRequireExpirationTime()
+                .setAllowedClockSkewInSeconds(30)
+                .setExpectedIssuer(issuer)
+                .setVerificationKey(key)
+                .setExpectedType(true, "JWT")
+                .build();
+        Object cacheSize = args.get("cache_size");
+        verified = Caffeine.newBuilder()
+                .maximumSize(cacheSize instanceof Number ? ((Number)cacheSize).longValue() : 10000)
+                .expireAfter(new ExpiresAt())
+                .build();
+    }
+
+    public String encode(Object data) throws JoseException, JsonProcessingException {
+        return encode(data, null);
+    }
+
+    /**
+     * A token for data (a JSON string, or an object that is written as one)
+     * that expires after expiration minutes, or the configured expiration
+     * when that is not a number.
+     */
+    public String encode(Object data, Object expiration) throws JoseException, JsonProcessingException {
+        JwtClaims claims = new JwtClaims();
+        claims.setIssuedAtToNow();
+        claims.setIssuer(issuer);
+        claims.setExpirationTimeMinutesInTheFuture(expiration instanceof Number ? ((Number)expiration).floatValue() : this.expiration);
+        claims.setGeneratedJwtId();
+        claims.setClaim("data", data instanceof String ? data : mapper.writeValueAsString(data));
+
+        JsonWebSignature jws = new JsonWebSignature();
+        jws.setHeader("typ", "JWT");
+        jws.setPayload(claims.toJson());
+        jws.setAlgorithmHeaderValue(AlgorithmIdentifiers.HMAC_SHA256);
+        jws.setKey(key);
+        return jws.getCompactSerialization();
+    }
+
+    /**
+     * The claims of a token signed with this service's key that has not
+     * expired.
+     */
+    public JwtClaims verify(String token) throws InvalidJwtException {
+        return consumer.processToClaims(token);
+    }
+
+    /**
+     * The user that encode put in the "data" claim.
+     */
+    public JsonNode user(JwtClaims claims) throws JsonProcessingException {
+        Object data = claims.getClaimValue("data");
+        if (data instanceof String)
+            return mapper.readTree((String)data);
+        return mapper.valueToTree(data);
+    }
+
+    /**
+     * The user of a valid token, from the cache when the token has been
+     * verified before.
+     */
+    public JsonNode verifiedUser(String token) throws InvalidJwtException, MalformedClaimException, JsonProcessingException {
+        String hash = hash(token);
+        Verified entry = verified.getIfPresent(hash);
+        // expiry is not exact in the cache, so the time is checked here
+        if (entry != null && entry.expiresAt > System.currentTimeMillis())
+            return entry.user;
+        JwtClaims claims = verify(token);
+        JsonNode user = user(claims);
+        verified.put(hash, new Verified(user, claims.getExpirationTime().getValueInMillis()));
+        return user;
+    }
+
+    static String hash(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(token.getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The token of an "Authorization: Bearer &lt;token&gt;" header value, or
+     * null.
+     */
+    public static String bearerToken(String authorization) {
+        if (authorization == null || !authorization.startsWith("Bearer "))
+            return null;
+        String token = authorization.substring(7).trim();
+        return token.isEmpty() ? null : token;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript.jwt;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.undertow.util.HeaderMap;
+import java.util.Map;
+import my.com.solutionx.simplyscript.ScriptContextInterface;
+import my.com.solutionx.simplyscript.ScriptEngineInterface;
+import my.com.solutionx.simplyscript.ScriptService;
+import my.com.solutionx.simplyscript.ScriptServiceProvider;
+import org.jose4j.jwt.MalformedClaimException;
+import org.jose4j.jwt.consumer.InvalidJwtException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sets up jwt as a JwtService. Its preCall sets the user of a request with a
+ * valid bearer token, as the script service does; jwt must be listed in
+ * privilegedServices for that. Requests that the web server has already
+ * authenticated (see [web] jwt_verify) are left alone. Map jwt to a script
+ * in service_conf (e.g. "map": {"jwt": "jwt"}) to use services/jwt/index.js
+ * instead.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+public class JwtServiceProvider implements ScriptServiceProvider {
+    private static final Logger logger = LoggerFactory.getLogger("services.jwt");
+    static final Map<String, Integer> HOOKS = Map.of(PRE_CALL, 12000);
+
+    JwtService service = null;
+
+    @Override
+    public String getName() {
+        return "jwt";
+    }
+
+    @Override
+    public Object setup(ScriptService scriptService, Map<String, Object> args) throws Exception {
+        service = new JwtService(args);
+        return service;
+    }
+
+    @Override
+    public Map<String, Integer> getHooks() {
+        return HOOKS;
+    }
+
+    @Override
+    public Object hook(String hook, ScriptContextInterface context, Object error, String action, Object args) {
+        if (context.req(ScriptEngineInterface.USER) != null)
+            return null;
+        Object headers = context.req("headers");
+        if (!(headers instanceof HeaderMap))
+            return null;
+        String token = JwtService.bearerToken(((HeaderMap)headers).getFirst("Authorization"));
+        if (token == null)
+            return null;
+        try {
+            return service.verifiedUser(token);
+        } catch (InvalidJwtException | MalformedClaimException | JsonProcessingException e) {
+            logger.info("Invalid JWT: {}", e.getMessage());
+            return null;
+        }
+    }
+}
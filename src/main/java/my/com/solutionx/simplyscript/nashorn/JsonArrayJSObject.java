@@ -0,0 +1,151 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript.nashorn;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import my.com.solutionx.simplyscript.JsonArrayView;
+import org.openjdk.nashorn.api.scripting.JSObject;
+import org.openjdk.nashorn.internal.runtime.Undefined;
+
+/**
+ * JSON array argument as an array-like script object (index and length)
+ * whose elements are converted on access, see JsonArrayView. The
+ * Array.prototype functions work on it through call, e.g.
+ * Array.prototype.map.call(args.items, fn), or Java.from(args.items) gives
+ * a script array.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+public class JsonArrayJSObject extends JsonArrayView implements JSObject {
+
+    public JsonArrayJSObject(ArrayNode node) {
+        super(node);
+    }
+
+    @Override
+    protected Object view(JsonNode value) {
+        return JsonObjectJSObject.of(value);
+    }
+
+    @Override
+    public Object getMember(String name) {
+        if (name.equals("length"))
+            return size();
+        return Undefined.getUndefined();
+    }
+
+    @Override
+    public Object getSlot(int index) {
+        if (!hasSlot(index))
+            return Undefined.getUndefined();
+        return get(index);
+    }
+
+    @Override
+    public boolean hasMember(String name) {
+        return name.equals("length");
+    }
+
+    @Override
+    public boolean hasSlot(int slot) {
+        return slot >= 0 && slot < size();
+    }
+
+    @Override
+    public void removeMember(String name) {
+    }
+
+    @Override
+    public void setMember(String name, Object value) {
+    }
+
+    @Override
+    public void setSlot(int index, Object value) {
+        if (index == size())
+            add(value);
+        else
+            set(index, value);
+    }
+
+    @Override
+    public Set<String> keySet() {
+        Set<String> keys = new LinkedHashSet<>();
+        for (int i=0; i<size(); i++)
+            keys.add(String.valueOf(i));
+        return keys;
+    }
+
+    @Override
+    public Collection<Object> values() {
+        return new ArrayList<>(this);
+    }
+
+    @Override
+    public Object call(Object thiz, Object... args) {
+        throw new UnsupportedOperationException("call");
+    }
+
+    @Override
+    public Object newObject(Object... args) {
+        throw new UnsupportedOperationException("newObject");
+    }
+
+    @Override
+    public Object eval(String s) {
+        throw new UnsupportedOperationException("eval");
+    }
+
+    @Override
+    public boolean isInstance(Object instance) {
+        return false;
+    }
+
+    @Override
+    public boolean isInstanceOf(Object clazz) {
+        return false;
+    }
+
+    @Override
+    public String getClassName() {
+        return "Array";
+    }
+
+    @Override
+    public boolean isFunction() {
+        return false;
+    }
+
+    @Override
+    public boolean isStrictFunction() {
+        return false;
+    }
+
+    // as for a script object, whose valueOf is itself, whatever the hint
+    @Override
+    public Object getDefaultValue(Class<?> hint) {
+        return toString();
+    }
+
+    @Override
+    public boolean isArray() {
+        return true;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2021 SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package my.com.solutionx.simplyscript.nashorn;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import my.com.solutionx.simplyscript.JsonObjectView;
+import org.openjdk.nashorn.api.scripting.JSObject;
+import org.openjdk.nashorn.internal.runtime.Undefined;
+
+/**
+ * JSON object argument as a script object whose members are converted on
+ * access, see JsonObjectView. Missing members read as undefined.
+ *
+ * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
+ */
+public class JsonObjectJSObject extends JsonObjectView implements JSObject {
+
+    public JsonObjectJSObject(ObjectNode node) {
+        super(node);
+    }
+
+    static Object of(JsonNode value) {
+        if (value.isObject())
+            return new JsonObjectJSObject((ObjectNode)value);
+        if (value.isArray())
+            return new JsonArrayJSObject((ArrayNode)value);
+        return scalar(value);
+    }
+
+    @Override
+    protected Object view(JsonNode value) {
+        return of(value);
+    }
+
+    @Override
+    public Object getMember(String name) {
+        if (!containsKey(name))
+            return Undefined.getUndefined();
+        return get(name);
+    }
+
+    @Override
+    public Object getSlot(int index) {
+        return getMember(String.valueOf(index));
+    }
+
+    @Override
+    public boolean hasMember(String name) {
+        return containsKey(name);
+    }
+
+    @Override
+    public boolean hasSlot(int slot) {
+        return containsKey(String.valueOf(slot));
+    }
+
+    @Override
+    public void removeMember(String name) {
+        remove(name);
+    }
+
+    @Override
+    public void setMember(String name, Object value) {
+        put(name, value);
+    }
+
+    @Override
+    public void setSlot(int index, Object value) {
+        put(String.valueOf(index), value);
+    }
+
+    @Override
+    public Object call(Object thiz, Object... args) {
+        throw new UnsupportedOperationException("call");
+    }
+
+    @Override
+    public Object newObject(Object... args) {
+        throw new UnsupportedOperationException("newObject");
+    }
+
+    @Override
+    public Object eval(String s) {
+        throw new UnsupportedOperationException("eval");
+    }
+
+    @Override
+    public boolean isInstance(Object instance) {
+        return false;
+    }
+
+    @Override
+    public boolean isInstanceOf(Object clazz) {
+        return false;
+    }
+
+    @Override
+    public String getClassName() {
+        return "Object";
+    }
+
+    @Override
+    public boolean isFunction() {
+        return false;
+    }
+
+    @Override
+    public boolean isStrictFunction() {
+        return false;
+    }
+
+    // as for a script object, whose valueOf is itself, whatever the hint
+    @Override
+    public Object getDefaultValue(Class<?> hint) {
+        return toString();
+    }
+
+    @Override
+    public boolean isArray() {
+        return false;
+    }
+}
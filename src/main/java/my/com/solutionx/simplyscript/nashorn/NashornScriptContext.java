@@ -15,16 +15,24 @@
  */
 package my.com.solutionx.simplyscript.nashorn;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.net.MalformedURLException;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.function.Function;
+import javax.script.CompiledScript;
 import javax.script.ScriptException;
 import javax.script.SimpleScriptContext;
+import my.com.solutionx.simplyscript.ActionMetrics;
+import my.com.solutionx.simplyscript.Interceptors;
+import my.com.solutionx.simplyscript.MetricsAggregator;
 import my.com.solutionx.simplyscript.ScriptContextInterface;
+import my.com.solutionx.simplyscript.ScriptEngineInterface;
 import my.com.solutionx.simplyscript.ScriptService;
+import my.com.solutionx.simplyscript.ScriptServiceProvider;
+import org.openjdk.nashorn.api.scripting.AbstractJSObject;
+import org.openjdk.nashorn.api.scripting.JSObject;
 import org.openjdk.nashorn.api.scripting.ScriptObjectMirror;
 import org.openjdk.nashorn.internal.runtime.Undefined;
 
@@ -36,12 +44,47 @@ public class NashornScriptContext extends SimpleScriptContext implements ScriptC
     WeakReference<ScriptEngine> global;
     Map<String, Object> request = new HashMap<>();
     Map<String, Object> externalReq = null;
+    ScriptObjectMirror ctxMirror = null;
 
     public NashornScriptContext(ScriptEngine global) {
         super();
         this.global = new WeakReference<>(global);
     }
     
+    /**
+     * Replacement for the global load(), installed by the engine's init
+     * script, that evaluates files through the shared CompiledScript cache
+     * and falls back to the original load for anything that is not a file.
+     */
+    class CachedLoad extends AbstractJSObject {
+        Object originalLoad = null;
+
+        @Override
+        public void setMember(String name, Object value) {
+            if (name.equals("original"))
+                originalLoad = value;
+        }
+
+        @Override
+        public boolean isFunction() {
+            return true;
+        }
+
+        @Override
+        public Object call(Object thiz, Object... args) {
+            if (args.length > 0 && args[0] instanceof CharSequence) {
+                try {
+                    CompiledScript script = global.get().sources.get(args[0].toString());
+                    if (script != null)
+                        return script.eval(NashornScriptContext.this);
+                } catch (IOException | ScriptException e) {
+                    throw new RuntimeException("Cannot load script: " + args[0], e);
+                }
+            }
+            return ((JSObject)originalLoad).call(thiz, args);
+        }
+    }
+
     public void init() throws ScriptException {
         global.get().initScript().eval(this);
     }
@@ -81,28 +124,78 @@ public class NashornScriptContext extends SimpleScriptContext implements ScriptC
         });
     }
 
+    public int moduleGeneration() {
+        return global.get().scriptService.get().moduleGeneration();
+    }
+
+    /**
+     * Calls made while warming up a context are not recorded.
+     */
+    public ActionMetrics metrics() {
+        if (externalReq != null && externalReq.containsKey(ScriptEngineInterface.WARMUP))
+            return ActionMetrics.DISABLED;
+        return global.get().scriptService.get().metrics();
+    }
+
+    public MetricsAggregator newMetricsAggregator(Map<String, Object> config, MetricsAggregator.Sink sink) {
+        return global.get().scriptService.get().newMetricsAggregator(config, sink, this);
+    }
+
     public boolean isPrivileged(String uniqueid) {
         ScriptService scriptService = global.get().scriptService.get();
         return scriptService.isPrivilegedService(uniqueid);
     }
 
+    public Object shared(String key, Function<String, Object> factory) {
+        return global.get().scriptService.get().shared(key, factory);
+    }
+
+    public ScriptServiceProvider serviceProvider(String name) {
+        return global.get().scriptService.get().getServiceProvider(name);
+    }
+
+    public Object javaService(ScriptServiceProvider provider) throws Exception {
+        return global.get().scriptService.get().javaService(provider);
+    }
+
+    public int hookGeneration() {
+        return global.get().scriptService.get().interceptors().generation();
+    }
+
+    public Interceptors.Hook[] hooks(String kind) {
+        return global.get().scriptService.get().interceptors().chain(kind);
+    }
+
+    /**
+     * Adds the hook of a script service; the function stays in ctx_prototype.
+     */
+    public Interceptors.Hook addHook(String service, String kind, int priority, boolean inner) {
+        return global.get().scriptService.get().interceptors().add(service, kind, priority, inner, null);
+    }
+
+    public Interceptors.Hook addProviderHook(String service, String kind, int priority, ScriptServiceProvider provider) {
+        return global.get().scriptService.get().interceptors().add(service, kind, priority, provider);
+    }
+
+    /**
+     * What scripts get for a value from Java, e.g. the user that a Java
+     * service hook returns: a JsonNode is viewed as an object.
+     */
+    public Object view(Object value) {
+        return ScriptEngine.scriptArgs(value);
+    }
+
     public Object service(String key, Object ctx) throws ScriptException {
-        ScriptObjectMirror obj = (ScriptObjectMirror)global.get().service(key);
+        Object obj = global.get().service(key);
         if (obj == null) {
             ScriptObjectMirror ctxObject = global.get().ctxConstructor();
-            String uuid = UUID.randomUUID().toString();
-            ScriptService scriptService = global.get().scriptService.get();
-            Map<String, Object> mapScriptConfig = scriptService.getScriptConfig();
-            Map<String, Object> mapServiceConfig = (Map<String, Object>) mapScriptConfig.get("service");
-            List lstPrivileged = (List)mapServiceConfig.get("privilegedServices");
-            if (lstPrivileged != null && lstPrivileged.contains(key)) {
-                scriptService.addPrivilegedService(uuid);
-            }
+            // one uniqueid per service, however many contexts set it up
+            String uuid = global.get().scriptService.get().serviceUniqueId(key);
 
             Object ret = ctxObject.callMember("serviceSetup", key, global.get().system(), uuid, ctx);
             if (ret == null || ret.getClass() == Undefined.class)
                 throw new RuntimeException("Error instantiating service: " + key);
-            obj = (ScriptObjectMirror) ret;
+            obj = ret;
             global.get().service(key, obj);
         }
         return obj;
@@ -130,6 +223,7 @@ public class NashornScriptContext extends SimpleScriptContext implements ScriptC
     }
 
     public void cleanup() {
+        ctxMirror = null;
         request.clear();
         request = null;
         externalReq = null;
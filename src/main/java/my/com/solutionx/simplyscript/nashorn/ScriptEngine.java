@@ -15,23 +15,33 @@
  */
 package my.com.solutionx.simplyscript.nashorn;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.github.benmanes.caffeine.cache.Cache;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.lang.ref.WeakReference;
 import java.net.MalformedURLException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Callable;
+import java.nio.charset.StandardCharsets;
 import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptException;
 import my.com.solutionx.simplyscript.PoolableScriptContext;
+import my.com.solutionx.simplyscript.ResultStream;
 import my.com.solutionx.simplyscript.ScriptContextInterface;
 import my.com.solutionx.simplyscript.ScriptEngineInterface;
 import my.com.solutionx.simplyscript.ScriptService;
+import my.com.solutionx.simplyscript.ScriptSourceCache;
 import org.openjdk.nashorn.api.scripting.NashornScriptEngine;
 import org.openjdk.nashorn.api.scripting.NashornScriptEngineFactory;
 import org.openjdk.nashorn.api.scripting.ScriptObjectMirror;
@@ -39,22 +49,36 @@ import org.openjdk.nashorn.internal.objects.NativeError;
 import org.openjdk.nashorn.internal.runtime.ECMAException;
 import org.openjdk.nashorn.internal.runtime.Undefined;
 import stormpot.PoolException;
-import stormpot.Timeout;
 
 /**
  *
  * @author SolutionX Software Sdn. Bhd. &lt;info@solutionx.com.my&gt;
  */
 public class ScriptEngine implements ScriptEngineInterface {
+    static final String INSTALL_LOAD = "__ss_load.original = load; load = __ss_load; ";
+
     CompiledScript initScript = null;
+    ScriptSourceCache<CompiledScript> sources = new ScriptSourceCache<>(this::compile);
+    final ObjectMapper mapper = newMapper();
     ScriptObjectMirror ctxObject = null;
     ScriptObjectMirror ctxConstructor;
+    ScriptObjectMirror ctxReset;
     NashornScriptEngine engine = null;
     WeakReference<ScriptService> scriptService = null;
     String scripts_path = null;
     String config_path = null;
     String working_path = null;
 
+    static ObjectMapper newMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        SimpleModule module = new SimpleModule();
+        module.addSerializer(new ScriptObjectMirrorSerializer(ScriptObjectMirror.class));
+        mapper.registerModule(module);
+        // callers own the stream (e.g. the HTTP response), so leave it open
+        mapper.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return mapper;
+    }
+
     @Override
     public void init(ScriptService scriptService, Map<String, Object> mapScriptConfig) throws ScriptException {
         this.scriptService = new WeakReference<>(scriptService);
@@ -68,16 +92,24 @@ public class ScriptEngine implements ScriptEngineInterface {
                 scriptService.getClassLoader());
 
         NashornScriptContext currentCtx = (NashornScriptContext)getScriptContext();
-        initScript = (CompiledScript)engine.compile("load('" + scripts_path + "init.js')");
+        initScript = (CompiledScript)engine.compile(INSTALL_LOAD + "load('" + scripts_path + "init.js')");
         initScript.eval(currentCtx);
 
         ScriptObjectMirror fnCtxFactory = (ScriptObjectMirror)engine.eval("load('" + scripts_path + "system/ctx_prototype.js')", currentCtx);
         ScriptObjectMirror ctxFactoryRet = (ScriptObjectMirror)fnCtxFactory.call(fnCtxFactory);
         ctxObject = (ScriptObjectMirror) ctxFactoryRet.getSlot(0);
         ctxConstructor = (ScriptObjectMirror) ctxFactoryRet.getSlot(1);
+        ctxReset = (ScriptObjectMirror) ctxFactoryRet.getSlot(2);
         ctxObject.callMember("config", mapScriptConfig);
     }
 
+    synchronized CompiledScript compile(File file) throws IOException, ScriptException {
+        try (Reader reader = new FileReader(file, StandardCharsets.UTF_8)) {
+            engine.getContext().setAttribute(javax.script.ScriptEngine.FILENAME, file.getPath(), ScriptContext.ENGINE_SCOPE);
+            return engine.compile(reader);
+        }
+    }
+
     CompiledScript initScript() {
         return initScript;
     }
@@ -92,6 +124,7 @@ public class ScriptEngine implements ScriptEngineInterface {
         scriptContext.getBindings(ScriptContext.ENGINE_SCOPE).put("scripts_path", scripts_path);
         scriptContext.getBindings(ScriptContext.ENGINE_SCOPE).put("config_path", config_path);
         scriptContext.getBindings(ScriptContext.ENGINE_SCOPE).put("working_path", working_path);
+        scriptContext.getBindings(ScriptContext.ENGINE_SCOPE).put("__ss_load", scriptContext.new CachedLoad());
         return scriptContext;
     }
 
@@ -104,8 +137,7 @@ public class ScriptEngine implements ScriptEngineInterface {
         if (services == null || services.isEmpty())
             return;
 
-        Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
-        PoolableScriptContext scriptContext = scriptService.get().getScriptContextPool().claim(timeout);
+        PoolableScriptContext scriptContext = scriptService.get().claimScriptContext();
         try {
             // ScriptObjectMirror ctxObject = (ScriptObjectMirror) ((NashornScriptContext)scriptContext.getScriptContext()).ctxObject();
             ScriptObjectMirror ctx = (ScriptObjectMirror)ctxObject.newObject(scriptContext.getScriptContext());
@@ -121,8 +153,7 @@ public class ScriptEngine implements ScriptEngineInterface {
     }
 
     public Object getService(String name) throws ScriptException, PoolException, InterruptedException {
-        Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
-        PoolableScriptContext scriptContext = scriptService.get().getScriptContextPool().claim(timeout);
+        PoolableScriptContext scriptContext = scriptService.get().claimScriptContext();
         try {
             // ScriptObjectMirror ctxObject = (ScriptObjectMirror) ((NashornScriptContext)scriptContext.getScriptContext()).ctxObject();
             ScriptObjectMirror ctx = (ScriptObjectMirror)ctxObject.newObject(scriptContext.getScriptContext());
@@ -139,8 +170,7 @@ public class ScriptEngine implements ScriptEngineInterface {
         if (modules == null || modules.isEmpty())
             return;
 
-        Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
-        PoolableScriptContext scriptContext = scriptService.get().getScriptContextPool().claim(timeout);
+        PoolableScriptContext scriptContext = scriptService.get().claimScriptContext();
         try {
             // ScriptObjectMirror ctxObject = (ScriptObjectMirror) ((NashornScriptContext)scriptContext.getScriptContext()).ctxObject();
             ScriptObjectMirror ctx = (ScriptObjectMirror)ctxObject.newObject(scriptContext.getScriptContext());
@@ -156,8 +186,7 @@ public class ScriptEngine implements ScriptEngineInterface {
     }
 
     public Object getModule(String name) throws ScriptException, PoolException, InterruptedException {
-        Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
-        PoolableScriptContext scriptContext = scriptService.get().getScriptContextPool().claim(timeout);
+        PoolableScriptContext scriptContext = scriptService.get().claimScriptContext();
         try {
             // ScriptObjectMirror ctxObject = (ScriptObjectMirror) ((NashornScriptContext)scriptContext.getScriptContext()).ctxObject();
             ScriptObjectMirror ctx = (ScriptObjectMirror)ctxObject.newObject(scriptContext.getScriptContext());
@@ -231,26 +260,10 @@ public class ScriptEngine implements ScriptEngineInterface {
     }
 
     public Map<String, Object> action(String action, Object args, Map<String, Object> mapReq) throws ScriptException, PoolException, InterruptedException {
-        Timeout timeout = new Timeout(10, TimeUnit.SECONDS);
-        PoolableScriptContext scriptContext = scriptService.get().getScriptContextPool().claim(timeout);
-        if (scriptContext == null) {
-            throw new ScriptException("FTimeout trying to execute script");
-        }
+        PoolableScriptContext scriptContext = scriptService.get().claimScriptContext(action, mapReq);
 // System.out.println("Getting PoolableScriptContext: "+ scriptContext + ":" + scriptContext.getScriptContext() + ":" + mapReq);
-        scriptContext.getScriptContext().setRequest(mapReq);
-
         try {
-            // ScriptObjectMirror ctx = (ScriptObjectMirror)ctxConstructor.newObject(scriptContext.getScriptContext());
-            ScriptObjectMirror ctx = (ScriptObjectMirror)ctxObject.newObject(scriptContext.getScriptContext());
-            // ScriptObjectMirror ctx = (ScriptObjectMirror)ctxConstructor.call(null, scriptContext.getScriptContext());
-//System.out.println("ctx: " + ctx);
-            Object ret = ctx.callMember("call", action, args);
-            Map<String, Object> map = (Map<String, Object>) scriptContext.getScriptContext().req(OTHER_RETURN_DATA);
-            if (map == null)
-                map = new HashMap<>();
-            if (ret != null && ret.getClass() != Undefined.class)
-                map.put("data", ret);
-            return map;
+            return action(scriptContext.getScriptContext(), action, args, mapReq);
         } finally {
 //System.out.print("in action finally: " + scriptContext);
             if (scriptContext != null) {
@@ -260,16 +273,74 @@ public class ScriptEngine implements ScriptEngineInterface {
     }
 
     @Override
-    public String actionReturnString(String action, Object args, Map<String, Object> mapReq) throws ScriptException, PoolException, InterruptedException, JsonProcessingException {
+    public Map<String, Object> action(ScriptContextInterface scriptContext, String action, Object args, Map<String, Object> mapReq) throws ScriptException {
+        ScriptObjectMirror ctx = requestContext(scriptContext, mapReq);
+//System.out.println("ctx: " + ctx);
+        return result(scriptContext, ctx.callMember("call", action, scriptArgs(args)));
+    }
+
+    @Override
+    public Map<String, Object> batch(List<Map<String, Object>> items, boolean transaction, boolean continueOnError, Map<String, Object> mapReq) throws ScriptException, PoolException, InterruptedException {
+        PoolableScriptContext scriptContext = scriptService.get().claimBatchContext(items, mapReq);
         try {
-            Map<String, Object> ret = action(action, args, mapReq);
-            ObjectMapper mapper = new ObjectMapper();
-            SimpleModule module = new SimpleModule();
-            module.addSerializer(new ScriptObjectMirrorSerializer(ScriptObjectMirror.class));
-            mapper.registerModule(module);
+            return batch(scriptContext.getScriptContext(), items, transaction, continueOnError, mapReq);
+        } finally {
+            if (scriptContext != null) {
+              scriptContext.release();
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Object> batch(ScriptContextInterface scriptContext, List<Map<String, Object>> items, boolean transaction, boolean continueOnError, Map<String, Object> mapReq) throws ScriptException {
+        String[] actions = new String[items.size()];
+        Object[] args = new Object[items.size()];
+        for (int i=0; i<actions.length; i++) {
+            actions[i] = (String)items.get(i).get("action");
+            args[i] = scriptArgs(items.get(i).get("args"));
+        }
+        ScriptObjectMirror ctx = requestContext(scriptContext, mapReq);
+        return result(scriptContext, ctx.callMember("batch", actions, args, transaction, continueOnError));
+    }
 
+    ScriptObjectMirror requestContext(ScriptContextInterface scriptContext, Map<String, Object> mapReq) {
+        scriptContext.setRequest(mapReq);
+        // ScriptObjectMirror ctx = (ScriptObjectMirror)ctxConstructor.newObject(scriptContext);
+        // the frozen ctx object is built once per context and reset for each request
+        NashornScriptContext context = (NashornScriptContext)scriptContext;
+        ScriptObjectMirror ctx = context.ctxMirror;
+        Object user = mapReq == null ? null : mapReq.get(USER);
+        if (ctx == null) {
+            ctx = context.ctxMirror = (ScriptObjectMirror)ctxConstructor.call(null, scriptContext);
+            if (user == null)
+                return ctx;
+        }
+        ctxReset.call(null, ctx, scriptArgs(user));
+        return ctx;
+    }
+
+    Map<String, Object> result(ScriptContextInterface scriptContext, Object ret) {
+        Map<String, Object> map = (Map<String, Object>) scriptContext.req(OTHER_RETURN_DATA);
+        if (map == null)
+            map = new HashMap<>();
+        if (ret != null && ret.getClass() != Undefined.class)
+            map.put("data", ret);
+        return map;
+    }
+
+    /**
+     * Runs the action and returns the response document, including the
+     * success flag, or the error document if the action failed.
+     */
+    Map<String, Object> actionResult(String action, Object args, Map<String, Object> mapReq) {
+        return response(() -> action(action, args, mapReq));
+    }
+
+    Map<String, Object> response(Callable<Map<String, Object>> call) {
+        try {
+            Map<String, Object> ret = call.call();
             ret.put("success", true);
-            return mapper.writeValueAsString(ret);
+            return ret;
         } catch (ECMAException e) {
             String out = e.getMessage();
 
@@ -286,19 +357,84 @@ public class ScriptEngine implements ScriptEngineInterface {
                 if (actionIn != null && actionIn != Undefined.getUndefined())
                     map.put("action", actionIn.toString());
             }
-            ObjectMapper mapper = new ObjectMapper();
-            return mapper.writeValueAsString(map);
+            return map;
         } catch (Exception e) {
-            String out = e.getMessage(); // String.format("%s:%s:%s%n", "Error calling action",
-                    // e.getMessage(), e.getClass().getName());
-            ObjectMapper mapper = new ObjectMapper();
-            Map<String, Object> map = new HashMap<>();
-            map.put("success", false);
-            map.put("message", out);
-            return mapper.writeValueAsString(map);
+            return errorResult(e);
+        }
+    }
+
+    Map<String, Object> errorResult(Exception e) {
+        String out = e.getMessage(); // String.format("%s:%s:%s%n", "Error calling action",
+                // e.getMessage(), e.getClass().getName());
+        Map<String, Object> map = new HashMap<>();
+        map.put("success", false);
+        map.put("message", out);
+        return map;
+    }
+
+    @Override
+    public String actionReturnString(String action, Object args, Map<String, Object> mapReq) throws ScriptException, PoolException, InterruptedException, JsonProcessingException {
+        if (mapReq == null)
+            mapReq = new HashMap<>();
+        try {
+            Map<String, Object> ret = actionResult(action, args, mapReq);
+            try {
+                return mapper.writeValueAsString(ret);
+            } catch (Exception e) {
+                return mapper.writeValueAsString(errorResult(e));
+            }
+        } finally {
+            ResultStream.closeAll(mapReq);
         }
     }
 
+    @Override
+    public void actionWriteTo(String action, Object args, Map<String, Object> mapReq, OutputStream out) throws ScriptException, PoolException, InterruptedException, IOException {
+        if (mapReq == null)
+            mapReq = new HashMap<>();
+        try {
+            Map<String, Object> ret = actionResult(action, args, mapReq);
+            ResultStream stream = resultStream(ret.get("data"));
+            if (stream != null && FORMAT_NDJSON.equals(mapReq.get(RESPONSE_FORMAT)))
+                stream.writeNdjson(mapper, ret, out);
+            else
+                mapper.writeValue(out, ret);
+        } finally {
+            ResultStream.closeAll(mapReq);
+        }
+    }
+
+    @Override
+    public void batchWriteTo(List<Map<String, Object>> items, boolean transaction, boolean continueOnError, Map<String, Object> mapReq, OutputStream out) throws ScriptException, PoolException, InterruptedException, IOException {
+        Map<String, Object> req = mapReq == null ? new HashMap<>() : mapReq;
+        try {
+            mapper.writeValue(out, response(() -> batch(items, transaction, continueOnError, req)));
+        } finally {
+            ResultStream.closeAll(req);
+        }
+    }
+
+    /**
+     * Request bodies parsed into a Jackson tree are handed to scripts as
+     * views that convert members on access; other arguments as they are.
+     */
+    static Object scriptArgs(Object args) {
+        return args instanceof JsonNode ? JsonObjectJSObject.of((JsonNode)args) : args;
+    }
+
+    static ResultStream resultStream(Object data) {
+        return data instanceof ResultStream ? (ResultStream)data : null;
+    }
+
+    public ObjectMapper mapper() {
+        return mapper;
+    }
+
+    @Override
+    public boolean isMultiThreaded() {
+        return true;
+    }
+
     @Override
     public void addClasspath(String path) throws MalformedURLException {
         scriptService.get().addClasspath(path);
@@ -312,6 +448,7 @@ public class ScriptEngine implements ScriptEngineInterface {
         if (ctxObject != null)
             ctxObject.clear();
         initScript = null;
+        sources.clear();
         engine = null;
     }
 }
@@ -36,7 +36,7 @@ public class ScriptObjectMirrorSerializer extends StdSerializer<ScriptObjectMirr
         if (t.isArray()) {
             jg.writeStartArray(t.size());
             for (int i=0; i<t.size(); i++) {
-                jg.writeObject(t.getSlot(i));
+                sp.defaultSerializeValue(t.getSlot(i), jg);
             }
             jg.writeEndArray();
         } else if (t.isFunction()) {
@@ -45,7 +45,7 @@ public class ScriptObjectMirrorSerializer extends StdSerializer<ScriptObjectMirr
             jg.writeStartObject();
             for (String key : t.keySet()) {
                 jg.writeFieldName(key);
-                jg.writeObject(t.get(key));
+                sp.defaultSerializeValue(t.get(key), jg);
             }
             jg.writeEndObject();
         }
@@ -15,6 +15,8 @@
  */
 package my.com.solutionx.simplyscript.web;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.undertow.Undertow;
 import io.undertow.Handlers;
@@ -22,7 +24,12 @@ import io.undertow.Undertow.Builder;
 import io.undertow.UndertowOptions;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.predicate.Predicate;
 import io.undertow.server.handlers.BlockingHandler;
+import io.undertow.server.handlers.encoding.ContentEncodingRepository;
+import io.undertow.server.handlers.encoding.DeflateEncodingProvider;
+import io.undertow.server.handlers.encoding.EncodingHandler;
+import io.undertow.server.handlers.encoding.GzipEncodingProvider;
 import io.undertow.server.handlers.form.FormData;
 import io.undertow.server.handlers.form.FormData.FormValue;
 import io.undertow.server.handlers.form.FormDataParser;
@@ -33,14 +40,13 @@ import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.PathTemplateMatch;
-import java.io.BufferedReader;
+import io.undertow.util.StatusCodes;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.KeyManagementException;
@@ -49,24 +55,40 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import javax.script.ScriptException;
+import my.com.solutionx.simplyscript.ScriptContextPool;
 import my.com.solutionx.simplyscript.ScriptEngineInterface;
 import my.com.solutionx.simplyscript.ScriptService;
 import my.com.solutionx.simplyscript.ScriptServiceException;
+import my.com.solutionx.simplyscript.ScriptServiceProvider;
+import my.com.solutionx.simplyscript.jwt.JwtService;
 import org.ini4j.Profile.Section;
 import org.ini4j.Wini;
+import org.jose4j.jwt.MalformedClaimException;
+import org.jose4j.jwt.consumer.InvalidJwtException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xnio.IoUtils;
 import stormpot.PoolException;
 
 public class UndertowServer {
@@ -74,8 +96,25 @@ public class UndertowServer {
     protected volatile static boolean bStop = false;
     Section iniMain = null;
 
-    private ScriptService engine = null;
+    private final AtomicReference<ScriptService> engine = new AtomicReference<>();
+    final AtomicBoolean reloading = new AtomicBoolean();
+    final ExecutorService reloader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "SimplyScript-Reload");
+        thread.setDaemon(true);
+        return thread;
+    });
+    static final ObjectMapper mapper = new ObjectMapper();
     Undertow server = null;
+    ExecutorService dispatchExecutor = null;
+    Semaphore dispatchPermits = null;
+    String retryAfter = "1";
+    long requestTimeoutNanos = 0;
+    HttpString deadlineHeader = null;
+    HttpString priorityHeader = null;
+    int batchMaxItems = 50;
+    int compressionThreshold = 0;
+    boolean jwtVerify = false;
+    static final long DRAIN_TIMEOUT_MILLIS = 60000;
     private static final char[] STORE_PASSWORD = "password".toCharArray();
 
     public UndertowServer() throws IOException, KeyStoreException,
@@ -97,8 +136,9 @@ public class UndertowServer {
         }
         Wini ini = new Wini(new File(ini_filename));
         iniMain = ini.get("main");
-        engine = new ScriptService();
-        engine.init(iniMain);
+        ScriptService scriptService = new ScriptService();
+        scriptService.init(iniMain);
+        engine.set(scriptService);
 
         Section sectionWeb = ini.get("web");
         String route = "/api";
@@ -113,13 +153,82 @@ public class UndertowServer {
         String urlMap = String.format("%s/{module}/{method}", route);
         var pathTemplateHandler = Handlers.pathTemplate(false);
         pathTemplateHandler.add(urlMap, new ScriptCallHandler());
+        String batch = sectionWeb == null ? "true" : sectionWeb.getOrDefault("batch", "true");
+        if (batch.equalsIgnoreCase("true")) {
+            batchMaxItems = Integer.valueOf(sectionWeb == null ? "50" : sectionWeb.getOrDefault("batch_max_items", "50"));
+            pathTemplateHandler.add(route + "/_batch", new BatchHandler());
+        }
+        String metrics = sectionWeb == null ? "true" : sectionWeb.getOrDefault("metrics", "true");
+        if (metrics.equalsIgnoreCase("true"))
+            pathTemplateHandler.add(route + "/_metrics", new MetricsHandler());
 
-        HttpHandler handlers = new BlockingHandler(pathTemplateHandler);
+        if (sectionWeb != null) {
+            requestTimeoutNanos = (long)(Double.valueOf(sectionWeb.getOrDefault("request_timeout", "0")) * 1000000000L);
+            String header = sectionWeb.getOrDefault("deadline_header", "X-Request-Timeout-Ms");
+            if (header != null && header.length() > 0)
+                deadlineHeader = new HttpString(header);
+            header = sectionWeb.getOrDefault("priority_header", "");
+            if (header != null && header.length() > 0)
+                priorityHeader = new HttpString(header);
+            jwtVerify = sectionWeb.getOrDefault("jwt_verify", "false").equalsIgnoreCase("true");
+        }
+
+        HttpHandler handlers;
+        String dispatch = sectionWeb == null ? "blocking" : sectionWeb.getOrDefault("dispatch", "blocking");
+        String executor = sectionWeb == null ? "platform" : sectionWeb.getOrDefault("executor", "platform");
+        if (executor.equalsIgnoreCase("virtual"))
+            dispatchExecutor = newVirtualThreadExecutor();
+        if (dispatchExecutor != null) {
+            // one virtual thread per request; script contexts are still bounded by the pool
+            int maxRequests = Integer.valueOf(sectionWeb.getOrDefault("max_requests", "10000"));
+            retryAfter = sectionWeb.getOrDefault("retry_after", "1");
+            dispatchPermits = new Semaphore(maxRequests);
+            handlers = pathTemplateHandler;
+            Logger logger = LoggerFactory.getLogger(this.getClass());
+            logger.info("Dispatching script calls to virtual threads, at most {} requests", maxRequests);
+        } else if (dispatch.equalsIgnoreCase("executor")) {
+            String poolSize = iniMain.getOrDefault("pool_max", iniMain.getOrDefault("pool_size", "5"));
+            int workers = Integer.valueOf(sectionWeb.getOrDefault("workers", poolSize));
+            int queueSize = Integer.valueOf(sectionWeb.getOrDefault("queue_size", String.valueOf(workers * 4)));
+            retryAfter = sectionWeb.getOrDefault("retry_after", "1");
+            dispatchExecutor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, queueSize)), new ThreadFactory() {
+                final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "SimplyScript-Dispatch-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            dispatchPermits = new Semaphore(workers + queueSize);
+            handlers = pathTemplateHandler;
+            Logger logger = LoggerFactory.getLogger(this.getClass());
+            logger.info("Dispatching script calls to {} workers with a queue of {}", workers, queueSize);
+        } else {
+            handlers = new BlockingHandler(pathTemplateHandler);
+        }
+        handlers = compression(sectionWeb, handlers);
 
         Builder builder = Undertow.builder();
 
         Section sectionHttp = ini.get("http");
         if (sectionHttp != null) {
+            // h2c (prior knowledge or Upgrade) on the plain listener
+            String enable_http2 = sectionHttp.getOrDefault("enable_http2", "false");
+            if (enable_http2.equalsIgnoreCase("true"))
+                builder = builder.setServerOption(UndertowOptions.ENABLE_HTTP2, true);
+            String maxStreams = sectionHttp.get("http2_max_concurrent_streams");
+            if (maxStreams != null)
+                builder = builder.setServerOption(UndertowOptions.HTTP2_SETTINGS_MAX_CONCURRENT_STREAMS, Integer.valueOf(maxStreams));
+            String bufferSize = sectionHttp.get("buffer_size");
+            if (bufferSize != null)
+                builder = builder.setBufferSize(Integer.valueOf(bufferSize));
+            String directBuffers = sectionHttp.get("direct_buffers");
+            if (directBuffers != null)
+                builder = builder.setDirectBuffers(Boolean.valueOf(directBuffers));
+
             String isActive = sectionHttp.getOrDefault("active", "true");
             if (isActive.equalsIgnoreCase("true")) {
                 String host = sectionHttp.getOrDefault("host", "localhost");
@@ -148,12 +257,110 @@ public class UndertowServer {
             }
         }
 
+        // deadlines are measured from when the request started to arrive,
+        // so time spent queued for a worker counts against them
+        builder = builder.setServerOption(UndertowOptions.RECORD_REQUEST_START_TIME, true);
         builder = builder.setHandler(handlers);
 
         server = builder.build();
         server.start();
     }
 
+    /**
+     * [web] compression=gzip,deflate compresses responses for clients that
+     * accept it, at compression_level (1-9), when they are at least
+     * compression_threshold bytes. Script responses are held back until they
+     * reach the threshold, so that small ones go out with a Content-Length
+     * and uncompressed, see ThresholdOutputStream.
+     */
+    HttpHandler compression(Section sectionWeb, HttpHandler next) {
+        String encodings = sectionWeb == null ? "" : sectionWeb.getOrDefault("compression", "");
+        if (encodings.trim().isEmpty() || encodings.equalsIgnoreCase("none"))
+            return next;
+        int level = Integer.valueOf(sectionWeb.getOrDefault("compression_level", "6"));
+        int threshold = Integer.valueOf(sectionWeb.getOrDefault("compression_threshold", "1024"));
+        compressionThreshold = threshold;
+        Predicate largeEnough = exchange -> {
+            String length = exchange.getResponseHeaders().getFirst(Headers.CONTENT_LENGTH);
+            return length == null || Long.parseLong(length) >= threshold;
+        };
+
+        ContentEncodingRepository repository = new ContentEncodingRepository();
+        int priority = 100;
+        for (String encoding : encodings.split(",")) {
+            encoding = encoding.trim().toLowerCase();
+            if (encoding.equals("gzip"))
+                repository.addEncodingHandler("gzip", new GzipEncodingProvider(level), priority, largeEnough);
+            else if (encoding.equals("deflate"))
+                repository.addEncodingHandler("deflate", new DeflateEncodingProvider(level), priority, largeEnough);
+            else
+                throw new IllegalArgumentException("Unsupported compression: " + encoding);
+            priority -= 10;
+        }
+        Logger logger = LoggerFactory.getLogger(this.getClass());
+        logger.info("Compressing responses of {} bytes or more with {} at level {}", threshold, encodings, level);
+        return new EncodingHandler(next, repository);
+    }
+
+    /**
+     * Buffers the start of a streamed response. If the writer finishes within
+     * limit bytes the response gets a Content-Length, which the compression
+     * predicate checks; past limit the buffer is handed over to the exchange
+     * and the rest is streamed (and compressed) as before.
+     */
+    static class ThresholdOutputStream extends OutputStream {
+        final HttpServerExchange exchange;
+        final byte[] buffer;
+        int count = 0;
+        OutputStream out = null;
+
+        ThresholdOutputStream(HttpServerExchange exchange, int limit) {
+            this.exchange = exchange;
+            this.buffer = new byte[limit];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (out == null && count + 1 < buffer.length) {
+                buffer[count++] = (byte)b;
+                return;
+            }
+            handOver();
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (out == null && count + len < buffer.length) {
+                System.arraycopy(b, off, buffer, count, len);
+                count += len;
+                return;
+            }
+            handOver();
+            out.write(b, off, len);
+        }
+
+        void handOver() throws IOException {
+            if (out == null) {
+                out = exchange.getOutputStream();
+                out.write(buffer, 0, count);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (out != null)
+                out.flush();
+        }
+
+        void finish() throws IOException {
+            if (out != null)
+                return;
+            exchange.setResponseContentLength(count);
+            exchange.getOutputStream().write(buffer, 0, count);
+        }
+    }
+
     FormParserFactory formParserFactory = FormParserFactory.builder()
             .addParsers(new MultiPartParserDefinition(),
                     new FormEncodedDataDefinition()).build();
@@ -166,45 +373,240 @@ public class UndertowServer {
             if (contentType == null)
                 contentType = "";
 
-            String inputJSONString = null;
-            if (contentType.equals("application/json")) {
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(exchange.getInputStream(), StandardCharsets.UTF_8))) {
-                    inputJSONString = br.lines().collect(Collectors.joining());
+            if (exchange.isInIoThread()) {
+                // dispatch=executor: read the body without blocking the IO thread, then hand off
+                if (contentType.equals("application/json")) {
+                    exchange.getRequestReceiver().receiveFullBytes((ex, body) -> dispatch(ex, () -> mapper.readTree(body)));
+                } else if (contentType.startsWith("multipart/form-data") || contentType.equals("application/x-www-form-urlencoded")) {
+                    FormDataParser parser = FormParserFactory.builder().build().createParser(exchange);
+                    parser.parse(ex -> dispatch(ex, () -> readTree(formInput(ex.getAttachment(FormDataParser.FORM_DATA)))));
+                } else {
+                    dispatch(exchange, () -> null);
                 }
-            } else if (contentType.startsWith("multipart/form-data") || contentType.equals("application/x-www-form-urlencoded")) {
-                FormDataParser parser = FormParserFactory.builder().build().createParser(exchange);
-                FormData formData = parser.parseBlocking();
-                FormValue jsonStringFormValue = formData.getFirst("i");
-                if (jsonStringFormValue != null) {
-                    inputJSONString = jsonStringFormValue.getValue();
+                return;
+            }
+
+            // the body goes straight from the request stream into a tree,
+            // which scripts read through lazy views (see JsonObjectView);
+            // bad input gets the same 400 as with dispatch=executor
+            JsonNode mapArgs;
+            try {
+                JsonNode body = null;
+                if (contentType.equals("application/json")) {
+                    body = mapper.readTree(exchange.getInputStream());
+                } else if (contentType.startsWith("multipart/form-data") || contentType.equals("application/x-www-form-urlencoded")) {
+                    FormDataParser parser = FormParserFactory.builder().build().createParser(exchange);
+                    FormData formData = parser.parseBlocking();
+                    body = readTree(formInput(formData));
                 }
+                mapArgs = parseArgs(exchange, body);
+            } catch (IOException e) {
+                sendError(exchange, StatusCodes.BAD_REQUEST, e.getMessage());
+                return;
             }
-            if (inputJSONString == null || inputJSONString.length() == 0) {
+            call(exchange, mapArgs);
+        }
+
+        JsonNode readTree(String inputJSONString) throws IOException {
+            if (inputJSONString == null || inputJSONString.length() == 0)
+                return null;
+            return mapper.readTree(inputJSONString);
+        }
+
+        String formInput(FormData formData) {
+            if (formData == null)
+                return null;
+            FormValue jsonStringFormValue = formData.getFirst("i");
+            if (jsonStringFormValue != null)
+                return jsonStringFormValue.getValue();
+            return null;
+        }
+
+        /**
+         * The body, or the i query parameter when there is none; null or an
+         * object for actions.
+         */
+        JsonNode parseArgs(HttpServerExchange exchange, JsonNode body) throws IOException {
+            if (body == null || body.isMissingNode()) {
+                body = null;
                 Map<String, Deque<String>> queryParameters = exchange.getQueryParameters();
                 if (queryParameters != null) {
                     Deque<String> queueInput = queryParameters.get("i");
                     if (queueInput != null)
-                        inputJSONString = queueInput.getFirst();
+                        body = readTree(queueInput.getFirst());
+                }
+            }
+            if (body == null || body.isNull())
+                return null;
+            if (!body.isObject())
+                throw new IOException("Arguments must be a JSON object");
+            return body;
+        }
+
+        void dispatch(HttpServerExchange exchange, BodyParser body) {
+            JsonNode mapArgs;
+            try {
+                mapArgs = parseArgs(exchange, body.parse());
+            } catch (IOException e) {
+                sendError(exchange, StatusCodes.BAD_REQUEST, e.getMessage());
+                return;
+            }
+
+            // only accept what the workers and the queue can hold, so that an
+            // overloaded server answers at once instead of parking in claim()
+            if (!dispatchPermits.tryAcquire()) {
+                exchange.getResponseHeaders().put(Headers.RETRY_AFTER, retryAfter);
+                sendError(exchange, StatusCodes.SERVICE_UNAVAILABLE, "Server busy, please retry later");
+                return;
+            }
+            exchange.dispatch(dispatchExecutor, ex -> {
+                try {
+                    ex.startBlocking();
+                    call(ex, mapArgs);
+                } finally {
+                    dispatchPermits.release();
+                }
+            });
+        }
+
+        void sendError(HttpServerExchange exchange, int statusCode, String message) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("success", false);
+            map.put("message", message);
+            exchange.setStatusCode(statusCode);
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+            try {
+                exchange.getResponseSender().send(mapper.writeValueAsString(map));
+            } catch (IOException e) {
+                exchange.endExchange();
+            }
+        }
+
+        /**
+         * The claim deadline is the earlier of [web] request_timeout and the
+         * client's own budget in deadline_header (milliseconds). The
+         * priority_header is only honoured when configured, as it lets
+         * callers use the contexts reserved for HIGH priority.
+         */
+        void claimOptions(HttpServerExchange exchange, Map<String, Object> mapReq) {
+            long start = exchange.getRequestStartTime();
+            if (start == -1)
+                start = System.nanoTime();
+            long deadline = requestTimeoutNanos > 0 ? start + requestTimeoutNanos : Long.MAX_VALUE;
+            if (deadlineHeader != null) {
+                String value = exchange.getRequestHeaders().getFirst(deadlineHeader);
+                if (value != null) {
+                    try {
+                        deadline = Math.min(deadline, start + TimeUnit.MILLISECONDS.toNanos(Long.parseLong(value.trim())));
+                    } catch (NumberFormatException e) {
+                        LoggerFactory.getLogger(this.getClass()).debug("Ignored {} header: {}", deadlineHeader, value);
+                    }
                 }
             }
-            // System.out.println(inputJSONString);
-            Map<String, Object> mapArgs = null;
-            if (inputJSONString != null && inputJSONString.length() > 0) {
-                ObjectMapper mapper = new ObjectMapper();
-                mapArgs = mapper.readValue(inputJSONString, Map.class);
+            if (deadline != Long.MAX_VALUE)
+                mapReq.put(ScriptEngineInterface.DEADLINE, deadline);
+
+            if (priorityHeader != null) {
+                String value = exchange.getRequestHeaders().getFirst(priorityHeader);
+                if (value != null) {
+                    try {
+                        mapReq.put(ScriptEngineInterface.PRIORITY, ScriptContextPool.Priority.of(value));
+                    } catch (IllegalArgumentException e) {
+                        LoggerFactory.getLogger(this.getClass()).debug("Ignored {} header: {}", priorityHeader, value);
+                    }
+                }
             }
+        }
 
+        void call(HttpServerExchange exchange, JsonNode mapArgs) throws Exception {
             PathTemplateMatch pathMatch = exchange.getAttachment(PathTemplateMatch.ATTACHMENT_KEY);
             String module = pathMatch.getParameters().get("module");
             String method = pathMatch.getParameters().get("method");
             // System.out.printf("Args: %s%n", mapArgs);
+            respond(exchange, module + "." + method,
+                    (scriptService, mapReq, out) -> scriptService.actionWriteTo(module + "." + method, mapArgs, mapReq, out));
+        }
+
+        /**
+         * With [web] jwt_verify, a bearer token is checked here, before a
+         * script context is claimed, by the jwt service's JwtService and its
+         * cache of verified tokens: a valid one gives the call its user
+         * (ScriptEngineInterface.USER), an invalid one is answered with a 401
+         * without running any script.
+         */
+        boolean authenticate(HttpServerExchange exchange, ScriptService scriptService, Map<String, Object> mapReq) throws Exception {
+            String token = JwtService.bearerToken(exchange.getRequestHeaders().getFirst(Headers.AUTHORIZATION));
+            if (token == null)
+                return true;
+            ScriptServiceProvider provider = scriptService.getServiceProvider("jwt");
+            if (provider == null)
+                throw new ScriptServiceException("jwt_verify needs the jwt service provider", "E_JWTNOPROVIDER");
+            JwtService jwt = (JwtService)scriptService.javaService(provider);
+            try {
+                mapReq.put(ScriptEngineInterface.USER, jwt.verifiedUser(token));
+                return true;
+            } catch (InvalidJwtException | MalformedClaimException | JsonProcessingException e) {
+                exchange.getResponseHeaders().put(Headers.WWW_AUTHENTICATE, "Bearer error=\"invalid_token\"");
+                sendError(exchange, StatusCodes.UNAUTHORIZED, "Invalid token");
+                return false;
+            }
+        }
+
+        /**
+         * Writes the response document of name (the action, or the batch) and
+         * then runs the commands the scripts returned, such as reload.
+         */
+        void respond(HttpServerExchange exchange, String name, ResponseWriter writer) throws Exception {
             Map<String, Object> mapReq = new HashMap<>();
             mapReq.put("headers", exchange.getRequestHeaders());
-            String response = null;
+            claimOptions(exchange, mapReq);
+
+            exchange.getResponseHeaders().put(
+                    new HttpString("Access-Control-Allow-Credentials"), "true");
+            HeaderValues origin = exchange.getRequestHeaders().get("Origin");
+            if (origin != null && origin.size() > 0) {
+                exchange.getResponseHeaders()
+                    .put(new HttpString("Access-Control-Allow-Origin"),
+                            exchange.getRequestHeaders().get("Origin").get(0));                
+            }
+            if (exchange.getRequestMethod() != null && exchange.getRequestMethod().toString().equals("OPTIONS")) {
+                exchange.getResponseHeaders().put(new HttpString("Access-Control-Allow-Headers"),
+                    "accept, accept-encoding, authorization, content-type, dnt, origin, user-agent, x-csrftoken, x-requested-with");
+            }
+            // streamed results (ResultStream) are written one row per line
+            // for clients that ask for NDJSON, other results as one line
+            String accept = exchange.getRequestHeaders().getFirst(Headers.ACCEPT);
+            if (accept != null && accept.contains("ndjson")) {
+                mapReq.put(ScriptEngineInterface.RESPONSE_FORMAT, ScriptEngineInterface.FORMAT_NDJSON);
+                exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/x-ndjson");
+            } else {
+                exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+            }
+            ScriptService scriptService = acquireEngine();
             try {
-                response = engine.actionReturnString(module + "." + method, mapArgs, mapReq);
+                if (jwtVerify && !authenticate(exchange, scriptService, mapReq))
+                    return;
+                if (compressionThreshold > 0) {
+                    ThresholdOutputStream out = new ThresholdOutputStream(exchange, compressionThreshold);
+                    writer.write(scriptService, mapReq, out);
+                    out.finish();
+                } else {
+                    writer.write(scriptService, mapReq, exchange.getOutputStream());
+                }
             } catch (Exception e) {
-                System.out.println("OOPS");
+                Logger logger = LoggerFactory.getLogger(this.getClass());
+                logger.error("Error writing response for " + name, e);
+                if (!exchange.isResponseStarted()) {
+                    Map<String, Object> map = new HashMap<>();
+                    map.put("success", false);
+                    map.put("message", e.getMessage());
+                    exchange.getResponseSender().send(mapper.writeValueAsString(map));
+                } else {
+                    // part of the document is already on the wire, so only the connection can signal the error
+                    IoUtils.safeClose(exchange.getConnection());
+                }
+            } finally {
+                scriptService.exit();
             }
             var objCommands = mapReq.get(ScriptEngineInterface.PROCESS_COMMANDS);
             if (objCommands != null) {
@@ -214,30 +616,162 @@ public class UndertowServer {
                     if (cmd == null)
                         continue;
                     if (cmd.equalsIgnoreCase("reload")) {
-                        Logger logger = LoggerFactory.getLogger(this.getClass());
-                        logger.info("Reloading SimplyScript");
-                        engine = new ScriptService();
-                        engine.init(iniMain);
+                        reload();
                     }
                 }
             }
-            exchange.getResponseHeaders().put(
-                    new HttpString("Access-Control-Allow-Credentials"), "true");
-            HeaderValues origin = exchange.getRequestHeaders().get("Origin");
-            if (origin != null && origin.size() > 0) {
-                exchange.getResponseHeaders()
-                    .put(new HttpString("Access-Control-Allow-Origin"),
-                            exchange.getRequestHeaders().get("Origin").get(0));                
+        }
+    }
+    
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() is looked up reflectively so
+     * that the server still builds for Java 11; null if the JVM is older than
+     * Java 21.
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            Logger logger = LoggerFactory.getLogger(UndertowServer.class);
+            logger.warn("executor=virtual needs Java 21 or later, using platform threads");
+            return null;
+        }
+    }
+
+    /**
+     * Returns the current ScriptService with the call counted against it. The
+     * reference is checked again after counting so that a call never lands
+     * on an instance that a reload has already started to drain.
+     */
+    ScriptService acquireEngine() {
+        while (true) {
+            ScriptService scriptService = engine.get();
+            scriptService.enter();
+            if (engine.get() == scriptService)
+                return scriptService;
+            scriptService.exit();
+        }
+    }
+
+    /**
+     * Builds and warms a new ScriptService in the background while the
+     * current one keeps serving, then swaps it in. The old instance is shut
+     * down once its in-flight calls have finished. Reload requests that
+     * arrive while one is running are folded into it.
+     */
+    public void reload() {
+        if (!reloading.compareAndSet(false, true))
+            return;
+        reloader.execute(() -> {
+            Logger logger = LoggerFactory.getLogger(this.getClass());
+            try {
+                logger.info("Reloading SimplyScript");
+                long start = System.currentTimeMillis();
+                ScriptService scriptService = null;
+                try {
+                    scriptService = new ScriptService();
+                    scriptService.init(iniMain);
+                    scriptService.warmUp();
+                } catch (Exception e) {
+                    logger.error("Reload failed, keeping the current SimplyScript instance", e);
+                    if (scriptService != null)
+                        scriptService.shutdown();
+                    return;
+                }
+                ScriptService old = engine.getAndSet(scriptService);
+                logger.info("Reloaded SimplyScript in {} ms", System.currentTimeMillis() - start);
+                drain(old, logger);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                reloading.set(false);
             }
-            if (exchange.getRequestMethod() != null && exchange.getRequestMethod().toString().equals("OPTIONS")) {
-                exchange.getResponseHeaders().put(new HttpString("Access-Control-Allow-Headers"),
-                    "accept, accept-encoding, authorization, content-type, dnt, origin, user-agent, x-csrftoken, x-requested-with");
+        });
+    }
+
+    void drain(ScriptService old, Logger logger) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        while (old.getActiveCalls() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(50);
+        if (old.getActiveCalls() > 0)
+            logger.warn("Shutting down previous SimplyScript instance with {} calls still active", old.getActiveCalls());
+        old.shutdown();
+    }
+
+    interface BodyParser {
+        JsonNode parse() throws IOException;
+    }
+
+    /**
+     * Writes one response document to out.
+     */
+    interface ResponseWriter {
+        void write(ScriptService scriptService, Map<String, Object> mapReq, OutputStream out) throws Exception;
+    }
+
+    /**
+     * POST <route>/_batch with [{"action": "Module.method", "args": {...}}, ...]
+     * or {"items": [...], "transaction": true, "continue_on_error": true}
+     * runs the items in order on one script context and answers with one
+     * result document per item, see ScriptEngineInterface.batch. The items
+     * must all be routed to the same context pool.
+     */
+    class BatchHandler extends ScriptCallHandler {
+        @Override
+        JsonNode parseArgs(HttpServerExchange exchange, JsonNode body) throws IOException {
+            if (body == null || body.isMissingNode())
+                return super.parseArgs(exchange, body);
+            return body;
+        }
+
+        @Override
+        void call(HttpServerExchange exchange, JsonNode mapArgs) throws Exception {
+            JsonNode objItems = mapArgs == null ? null : mapArgs.isArray() ? mapArgs : mapArgs.get("items");
+            if (objItems == null || !objItems.isArray()) {
+                sendError(exchange, StatusCodes.BAD_REQUEST, "Batch expects an array of {action, args}");
+                return;
             }
-            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
-            exchange.getResponseSender().send(response);
+            if (objItems.size() > batchMaxItems) {
+                sendError(exchange, StatusCodes.BAD_REQUEST, "Batch has more than " + batchMaxItems + " items");
+                return;
+            }
+            List<Map<String, Object>> items = new ArrayList<>(objItems.size());
+            for (JsonNode item : objItems) {
+                if (!item.isObject() || !item.path("action").isTextual()) {
+                    sendError(exchange, StatusCodes.BAD_REQUEST, "Every batch item needs an action");
+                    return;
+                }
+                Map<String, Object> mapItem = new HashMap<>();
+                mapItem.put("action", item.get("action").textValue());
+                mapItem.put("args", item.get("args"));
+                items.add(mapItem);
+            }
+            try {
+                engine.get().getContextPool(items);
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, StatusCodes.BAD_REQUEST, e.getMessage());
+                return;
+            }
+            boolean transaction = mapArgs.path("transaction").booleanValue();
+            boolean continueOnError = mapArgs.path("continue_on_error").booleanValue();
+            respond(exchange, ScriptEngineInterface.BATCH_ACTION,
+                    (scriptService, mapReq, out) -> scriptService.batchWriteTo(items, transaction, continueOnError, mapReq, out));
         }
     }
-    
+
+    /**
+     * Prometheus text format scrape of the current ScriptService's metrics.
+     */
+    class MetricsHandler implements HttpHandler {
+        @Override
+        public void handleRequest(HttpServerExchange exchange) throws Exception {
+            ScriptService scriptService = engine.get();
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain; version=0.0.4; charset=utf-8");
+            exchange.getResponseSender().send(scriptService.metrics().toPrometheus(scriptService.getContextPools(),
+                    scriptService.interceptors().hooks()));
+        }
+    }
+
     private static KeyStore loadKeyStore(String name) throws IOException, KeyStoreException, NoSuchAlgorithmException, CertificateException {
         final InputStream stream = Files.newInputStream(Paths.get(name));
 
@@ -270,6 +804,14 @@ public class UndertowServer {
         return sslContext;
     }
 
+    void stop() throws InterruptedException {
+        server.stop();
+        if (dispatchExecutor != null)
+            dispatchExecutor.shutdown();
+        reloader.shutdownNow();
+        engine.get().shutdown();
+    }
+
     public static void main( String argv[] ) throws Exception {
         if ( argv.length == 0 || argv[0].equals("start") ) {
             System.out.println( "Start Service..." );
@@ -286,7 +828,7 @@ public class UndertowServer {
         } else if (argv[0].equals("stop")) {
             System.out.println( "Stop Service" );
             if ( undertow_server != null )
-                undertow_server.server.stop();
+                undertow_server.stop();
             setStop();
         }
     }
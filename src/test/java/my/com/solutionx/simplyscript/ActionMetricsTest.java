@@ -0,0 +1,44 @@
+package my.com.solutionx.simplyscript;
+
+/*
+ * Copyright 2021 SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Action names come from clients, so the timers are capped.
+ *
+ * @author SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;
+ */
+public class ActionMetricsTest {
+    @Test
+    public void testMaxNames() {
+        ActionMetrics metrics = new ActionMetrics();
+        metrics.setMaxNames(2);
+        for (int i=0; i<5; i++)
+            metrics.record("Module.action" + i, false, metrics.start(), false);
+        metrics.record("Module.action0", false, metrics.start(), true);
+
+        Assert.assertEquals(3, metrics.calls.size());
+        Assert.assertEquals(2, metrics.calls.get("Module.action0").count.sum());
+        Assert.assertEquals(3, metrics.calls.get(ActionMetrics.UNKNOWN).count.sum());
+        String prometheus = metrics.toPrometheus(Collections.emptyList());
+        Assert.assertTrue(prometheus.contains("simplyscript_action_errors_total{action=\"Module.action0\",call=\"top\"} 1\n"));
+        Assert.assertFalse(prometheus.contains("Module.action4"));
+    }
+}
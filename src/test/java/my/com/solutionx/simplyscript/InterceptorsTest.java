@@ -0,0 +1,111 @@
+package my.com.solutionx.simplyscript;
+
+/*
+ * Copyright 2021 SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Script and Java hooks run from the chains in ScriptService.interceptors(),
+ * in priority order, inner hooks for inner calls as well, and each is timed
+ * on a sample of the calls.
+ *
+ * @author SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;
+ */
+public class InterceptorsTest {
+    static final String HOOKS_MODULE =
+            "({\n" +
+            "  outer(args, ctx) { ctx.call('Hooks.inner', args); return ctx.req('trace'); },\n" +
+            "  inner(args, ctx) { return null; }\n" +
+            "});\n";
+
+    ScriptsFixture fixture;
+    ScriptService service;
+
+    static String traceService(String name, String hooks) {
+        return "(function() {\n" +
+            "function " + name + "() {}\n" +
+            name + ".prototype = {\n" +
+            "  _setup(serviceName, args, system, path, ctx) { return " + hooks + "; },\n" +
+            "  trace(ctx, e, action) { ctx.req('trace', (ctx.req('trace') || '') + '" + name + ":' + action + ';'); }\n" +
+            "};\n" +
+            "return " + name + ";\n" +
+            "}());\n";
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = new ScriptsFixture();
+        fixture.script("modules/Hooks/index.js", HOOKS_MODULE);
+        fixture.script("services/first/index.js",
+                traceService("first", "{preCall: {fn: this.trace, priority: 9000, inner: true}}"));
+        fixture.script("services/second/index.js",
+                traceService("second", "{preCall: {fn: this.trace, priority: 10000}}"));
+        fixture.conf("{\"path\": \"services\", \"preload\": [\"first\", \"second\"]}", "{\"path\": \"modules\"}");
+        service = new ScriptService();
+        service.init(fixture.config("my.com.solutionx.simplyscript.graal.ScriptEngine", 1));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (service != null)
+            service.shutdown();
+        fixture.delete();
+    }
+
+    String trace() throws Exception {
+        return new ObjectMapper().readTree(service.actionReturnString("Hooks.outer", null)).get("data").asText();
+    }
+
+    Interceptors.Hook hook(String id) {
+        for (Interceptors.Hook hook : service.interceptors().hooks()) {
+            if (hook.getId().equals(id))
+                return hook;
+        }
+        return null;
+    }
+
+    @Test
+    public void testChainOrder() throws Exception {
+        service.interceptors().add("audit", ScriptServiceProvider.PRE_CALL, 9500, true, (kind, context, error, action, args) -> {
+            Object trace = context.req("trace");
+            context.req("trace", (trace == null ? "" : trace) + "audit:" + kind + ";");
+            return null;
+        });
+        Assert.assertEquals("second:Hooks.outer;audit:preCall;first:Hooks.outer;audit:preInnerCall;first:Hooks.inner;", trace());
+
+        Assert.assertArrayEquals(new Object[] {hook("audit.preCall"), hook("first.preCall")},
+                service.interceptors().chain(ScriptServiceProvider.PRE_INNER_CALL));
+        Assert.assertEquals(0, service.interceptors().chain(ScriptServiceProvider.POST_CALL).length);
+    }
+
+    @Test
+    public void testHookTiming() throws Exception {
+        // the hooks of one top level call in 16 are timed, with its inner calls
+        for (int i=0; i<32; i++)
+            trace();
+        Assert.assertEquals(4, hook("first.preCall").timer.count.sum());
+        Assert.assertEquals(2, hook("second.preCall").timer.count.sum());
+        String metrics = service.metrics().toPrometheus(Collections.emptyList(), service.interceptors().hooks());
+        Assert.assertTrue(metrics.contains("simplyscript_hook_duration_seconds_count{service=\"first\",hook=\"preCall\"} 4\n"));
+        Assert.assertTrue(metrics.contains("simplyscript_hook_errors_total{service=\"second\",hook=\"preCall\"} 0\n"));
+    }
+}
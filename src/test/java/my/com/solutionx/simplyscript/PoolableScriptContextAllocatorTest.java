@@ -0,0 +1,65 @@
+package my.com.solutionx.simplyscript;
+
+/*
+ * Copyright 2021 SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Prebuilt contexts the pool never took are cleaned up on shutdown.
+ *
+ * @author SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;
+ */
+public class PoolableScriptContextAllocatorTest {
+    final AtomicInteger built = new AtomicInteger();
+    final AtomicInteger cleanedUp = new AtomicInteger();
+
+    ScriptContextInterface context() {
+        built.incrementAndGet();
+        return (ScriptContextInterface)Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {ScriptContextInterface.class}, (proxy, method, args) -> {
+            if (method.getName().equals("cleanup"))
+                cleanedUp.incrementAndGet();
+            return null;
+        });
+    }
+
+    ScriptEngineInterface engine() {
+        return (ScriptEngineInterface)Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {ScriptEngineInterface.class}, (proxy, method, args) -> {
+            if (method.getName().equals("getScriptContext"))
+                return context();
+            if (method.getName().equals("isMultiThreaded"))
+                return true;
+            return null;
+        });
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        PoolableScriptContextAllocator allocator = new PoolableScriptContextAllocator(engine());
+        allocator.prebuild(4, 2);
+        allocator.builder.awaitTermination(10, TimeUnit.SECONDS);
+        allocator.shutdown();
+        Assert.assertEquals(4, built.get());
+        Assert.assertEquals(4, cleanedUp.get());
+        Assert.assertTrue(allocator.prebuilt.isEmpty());
+    }
+}
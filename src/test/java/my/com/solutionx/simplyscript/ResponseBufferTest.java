@@ -0,0 +1,71 @@
+package my.com.solutionx.simplyscript;
+
+/*
+ * Copyright 2021 SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * A response is held in chunks until finish(), unless it outgrows the limit.
+ *
+ * @author SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;
+ */
+public class ResponseBufferTest {
+    static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i=0; i<length; i++)
+            bytes[i] = (byte)i;
+        return bytes;
+    }
+
+    @Test
+    public void testHeldUntilFinish() throws Exception {
+        byte[] bytes = bytes(ResponseBuffer.CHUNK_SIZE * 2 + 100);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseBuffer buffer = new ResponseBuffer(out, bytes.length + 1);
+        buffer.write(bytes, 0, 10);
+        buffer.write(bytes[10]);
+        buffer.write(bytes, 11, bytes.length - 11);
+        buffer.flush();
+        Assert.assertEquals(0, out.size());
+        Assert.assertEquals(3, buffer.chunks.size());
+
+        buffer.finish();
+        Assert.assertFalse(buffer.isStreaming());
+        Assert.assertArrayEquals(bytes, out.toByteArray());
+    }
+
+    @Test
+    public void testStreamedPastLimit() throws Exception {
+        byte[] bytes = bytes(ResponseBuffer.CHUNK_SIZE + 100);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseBuffer buffer = new ResponseBuffer(out, ResponseBuffer.CHUNK_SIZE);
+        buffer.write(bytes, 0, 100);
+        Assert.assertEquals(0, out.size());
+        buffer.write(bytes, 100, ResponseBuffer.CHUNK_SIZE);
+        Assert.assertTrue(buffer.isStreaming());
+        Assert.assertArrayEquals(bytes, out.toByteArray());
+
+        buffer.write(7);
+        buffer.finish();
+        Assert.assertEquals(bytes.length + 1, out.size());
+        Assert.assertEquals(7, out.toByteArray()[bytes.length]);
+        Assert.assertArrayEquals(bytes, Arrays.copyOf(out.toByteArray(), bytes.length));
+    }
+}
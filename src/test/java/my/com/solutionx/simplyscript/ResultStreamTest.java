@@ -0,0 +1,165 @@
+package my.com.solutionx.simplyscript;
+
+/*
+ * Copyright 2021 SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The rows and the resource of a stream from ctx.stream are closed once the
+ * response has been written, the output failed or the action failed.
+ *
+ * @author SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;
+ */
+public class ResultStreamTest {
+    static final int ROWS = 100;
+    static final String ROWS_MODULE =
+            "({\n" +
+            "  rows(args, ctx) {\n" +
+            "    var test = Java.type('my.com.solutionx.simplyscript.ResultStreamTest');\n" +
+            "    return ctx.stream(test.rows(), test.resource());\n" +
+            "  },\n" +
+            "  fail(args, ctx) {\n" +
+            "    this.rows(args, ctx);\n" +
+            "    throw new Error('action failed');\n" +
+            "  }\n" +
+            "});\n";
+
+    static final List<Rows> rows = new ArrayList<>();
+    static final List<Resource> resources = new ArrayList<>();
+
+    public static class Rows implements Iterable<Object>, AutoCloseable {
+        boolean closed = false;
+
+        @Override
+        public Iterator<Object> iterator() {
+            return IntStream.range(0, ROWS).<Object>mapToObj(i -> Map.of("i", i)).iterator();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    public static class Resource implements AutoCloseable {
+        boolean closed = false;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    public static synchronized Rows rows() {
+        Rows r = new Rows();
+        rows.add(r);
+        return r;
+    }
+
+    public static synchronized Resource resource() {
+        Resource r = new Resource();
+        resources.add(r);
+        return r;
+    }
+
+    static void assertClosed() {
+        Assert.assertEquals(1, rows.size());
+        Assert.assertEquals(1, resources.size());
+        Assert.assertTrue("rows closed", rows.get(0).closed);
+        Assert.assertTrue("resource closed", resources.get(0).closed);
+    }
+
+    ScriptsFixture fixture;
+    ScriptService service;
+
+    @Before
+    public void setUp() throws Exception {
+        rows.clear();
+        resources.clear();
+        fixture = new ScriptsFixture();
+        fixture.script("modules/Rows/index.js", ROWS_MODULE);
+        fixture.conf("{\"path\": \"services\"}", "{\"path\": \"modules\"}");
+        service = new ScriptService();
+        service.init(fixture.config("my.com.solutionx.simplyscript.graal.ScriptEngine", 1));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (service != null)
+            service.shutdown();
+        fixture.delete();
+    }
+
+    @Test
+    public void testClosedAfterWrite() throws Exception {
+        JsonNode node = new ObjectMapper().readTree(service.actionReturnString("Rows.rows"));
+        Assert.assertTrue(node.get("success").asBoolean());
+        Assert.assertEquals(ROWS, node.get("data").size());
+        assertClosed();
+    }
+
+    @Test
+    public void testClosedAfterNdjsonWrite() throws Exception {
+        Map<String, Object> mapReq = new HashMap<>();
+        mapReq.put(ScriptEngineInterface.RESPONSE_FORMAT, ScriptEngineInterface.FORMAT_NDJSON);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.actionWriteTo("Rows.rows", null, mapReq, out);
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        Assert.assertEquals(ROWS + 1, lines.length);
+        Assert.assertTrue(new ObjectMapper().readTree(lines[ROWS]).get("success").asBoolean());
+        assertClosed();
+    }
+
+    @Test
+    public void testClosedAfterWriteError() throws Exception {
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("client went away");
+            }
+        };
+        try {
+            service.actionWriteTo("Rows.rows", null, out);
+            Assert.fail("write error not thrown");
+        } catch (IOException e) {
+            // expected
+        }
+        assertClosed();
+    }
+
+    @Test
+    public void testClosedAfterActionFailure() throws Exception {
+        JsonNode node = new ObjectMapper().readTree(service.actionReturnString("Rows.fail"));
+        Assert.assertFalse(node.get("success").asBoolean());
+        assertClosed();
+    }
+}
@@ -0,0 +1,49 @@
+package my.com.solutionx.simplyscript;
+
+/*
+ * Copyright 2021 SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * A gate whose reserve exceeds the pool size admits nothing until the pool
+ * grows past the reserve.
+ *
+ * @author SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;
+ */
+public class ScriptContextPoolTest {
+    @Test
+    public void testGateBelowReserve() throws Exception {
+        ScriptContextPool.Gate gate = new ScriptContextPool.Gate(-2);
+        Assert.assertEquals(0, gate.availablePermits());
+        Assert.assertFalse(gate.tryAcquire());
+
+        gate.resize(1);
+        Assert.assertEquals(0, gate.availablePermits());
+        gate.resize(2);
+        Assert.assertEquals(1, gate.availablePermits());
+        Assert.assertTrue(gate.tryAcquire());
+
+        // the claim that is in flight is still owed its permit
+        gate.resize(-3);
+        Assert.assertEquals(-1, gate.availablePermits());
+        gate.release();
+        Assert.assertEquals(0, gate.availablePermits());
+        gate.resize(3);
+        Assert.assertEquals(1, gate.availablePermits());
+    }
+}
@@ -0,0 +1,122 @@
+package my.com.solutionx.simplyscript;
+
+/*
+ * Copyright 2021 SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * A temporary working directory with the repository's init.js, system and
+ * lib scripts, to which tests add their own services, modules and config
+ * files before starting a ScriptService on it with config().
+ *
+ * @author SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;
+ */
+public class ScriptsFixture {
+    public final Path root;
+    public final Path scripts;
+    int port = 0;
+
+    public ScriptsFixture() throws IOException {
+        root = Files.createTempDirectory("simplyscript");
+        scripts = root.resolve("scripts");
+        copy(Paths.get("scripts/init.js"), scripts.resolve("init.js"));
+        copy(Paths.get("scripts/system"), scripts.resolve("system"));
+        copy(Paths.get("scripts/lib"), scripts.resolve("lib"));
+    }
+
+    public void script(String path, String content) throws IOException {
+        write(scripts.resolve(path), content);
+    }
+
+    /**
+     * Writes config/scripts/service_conf.json and module_conf.json.
+     */
+    public void conf(String serviceConf, String moduleConf) throws IOException {
+        write(root.resolve("config/scripts/service_conf.json"), serviceConf);
+        write(root.resolve("config/scripts/module_conf.json"), moduleConf);
+    }
+
+    /**
+     * The [main] settings of a ScriptService running the fixture's scripts.
+     */
+    public Map<String, String> config(String engine, int poolSize) {
+        Map<String, String> config = new HashMap<>();
+        config.put("working_path", root.toString() + "/");
+        config.put("config_path", root.resolve("config").toString() + "/");
+        config.put("scripts_path", scripts.toString() + "/");
+        config.put("pool_size", String.valueOf(poolSize));
+        config.put("engine", engine);
+        return config;
+    }
+
+    /**
+     * Writes config.ini for an UndertowServer on a free local port (see
+     * url()), with the [main] settings of config() and the given [web]
+     * lines, and returns its path.
+     */
+    public String ini(String engine, int poolSize, String web) throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        StringBuilder ini = new StringBuilder("[main]\n");
+        for (Map.Entry<String, String> entry : config(engine, poolSize).entrySet())
+            ini.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        ini.append("[web]\nroute=/api\n").append(web);
+        ini.append("[http]\nport=").append(port).append('\n');
+        Path path = root.resolve("config.ini");
+        write(path, ini.toString());
+        return path.toString();
+    }
+
+    public String url() {
+        return "http://localhost:" + port + "/api/";
+    }
+
+    public void delete() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    public static void copy(Path from, Path to) throws IOException {
+        try (Stream<Path> paths = Files.walk(from)) {
+            for (Path path : (Iterable<Path>)paths::iterator) {
+                Path target = to.resolve(from.relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    Files.copy(path, target);
+                }
+            }
+        }
+    }
+
+    public static void write(Path path, String content) throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,137 @@
+package my.com.solutionx.simplyscript.graal;
+
+/*
+ * Copyright 2021 SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import my.com.solutionx.simplyscript.ScriptService;
+import my.com.solutionx.simplyscript.ScriptsFixture;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * With context_affine every pooled context sets up its own services and
+ * modules, so calls on several contexts at once must not touch each other's
+ * script objects, while Java objects from ctx.shared are the same for all.
+ *
+ * @author SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;
+ */
+public class ContextAffineTest {
+    static final int POOL_SIZE = 3;
+    static final int THREADS = 6;
+    static final int CALLS = 50;
+
+    static final String TAG_SERVICE =
+            "(function() {\n" +
+            "function tag(uniqueid) {}\n" +
+            "tag.prototype = {\n" +
+            "  _setup(serviceName, args, system, path, ctx) {\n" +
+            "    this.token = ctx.shared('tag.token', () => new (Java.type('java.lang.Object'))());\n" +
+            "    return { contextPrototype: this, preCall: { fn: this.preCall, priority: 100 } };\n" +
+            "  },\n" +
+            "  preCall(ctx) { ctx.req('tagged', true); },\n" +
+            "  tokenId() { return Java.type('java.lang.System').identityHashCode(this.token); }\n" +
+            "};\n" +
+            "return tag;\n" +
+            "}());\n";
+    static final String COUNTER_MODULE =
+            "({\n" +
+            "  _setup(moduleName, args, system, path, ctx) {\n" +
+            "    this.id = String(Java.type('java.util.UUID').randomUUID());\n" +
+            "    this.calls = 0;\n" +
+            "  },\n" +
+            "  next(args, ctx) {\n" +
+            "    this.calls++;\n" +
+            "    var rows = [];\n" +
+            "    for (var i=0; i<20; i++) rows.push({ i: i, name: 'row ' + i });\n" +
+            "    return { module: this.id, calls: this.calls, tagged: ctx.req('tagged') === true,\n" +
+            "      token: ctx.tag.tokenId(), depth: ctx.call('Counter.depth', {}), rows: rows };\n" +
+            "  },\n" +
+            "  depth(args, ctx) { return ctx.callDepth(); }\n" +
+            "});\n";
+
+    ScriptsFixture fixture;
+    ScriptService service;
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = new ScriptsFixture();
+        fixture.script("services/tag/index.js", TAG_SERVICE);
+        fixture.script("modules/Counter/index.js", COUNTER_MODULE);
+        fixture.conf("{\"path\": \"services\", \"preload\": [\"tag\"]}", "{\"path\": \"modules\"}");
+
+        Map<String, String> config = fixture.config(ScriptEngine.class.getName(), POOL_SIZE);
+        config.put("startup_threads", String.valueOf(POOL_SIZE));
+        config.put("context_affine", "true");
+        service = new ScriptService();
+        service.init(config);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (service != null)
+            service.shutdown();
+        fixture.delete();
+    }
+
+    @Test
+    public void testConcurrentCalls() throws Exception {
+        Assert.assertTrue(service.engine().isMultiThreaded());
+        ObjectMapper mapper = new ObjectMapper();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (int t=0; t<THREADS; t++) {
+                futures.add(executor.submit(() -> {
+                    List<String> responses = new ArrayList<>();
+                    for (int i=0; i<CALLS; i++)
+                        responses.add(service.actionReturnString("Counter.next", null, null));
+                    return responses;
+                }));
+            }
+
+            Set<String> modules = new HashSet<>();
+            Set<Integer> tokens = new HashSet<>();
+            for (Future<List<String>> future : futures) {
+                for (String response : future.get()) {
+                    JsonNode node = mapper.readTree(response);
+                    Assert.assertTrue(response, node.get("success").asBoolean());
+                    JsonNode data = node.get("data");
+                    Assert.assertTrue("preCall hook of the context's own service", data.get("tagged").asBoolean());
+                    Assert.assertEquals(1, data.get("depth").asInt());
+                    Assert.assertEquals(20, data.get("rows").size());
+                    modules.add(data.get("module").asText());
+                    tokens.add(data.get("token").asInt());
+                }
+            }
+            Assert.assertTrue("one module object per context at most: " + modules, modules.size() <= POOL_SIZE);
+            Assert.assertEquals("one shared Java object: " + tokens, 1, tokens.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package my.com.solutionx.simplyscript.graal;
+
+/*
+ * Copyright 2021 SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.Value;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * The JSON.stringify fast path must write the same JSON as the member walk.
+ *
+ * @author SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;
+ */
+public class ValueSerializerTest {
+    static Context ctx;
+    static ObjectMapper fast;
+    static ObjectMapper walk;
+
+    static ObjectMapper mapper(boolean fastPath) {
+        ObjectMapper mapper = new ObjectMapper();
+        SimpleModule module = new SimpleModule();
+        module.addSerializer(new ValueSerializer(Value.class, fastPath));
+        mapper.registerModule(module);
+        return mapper;
+    }
+
+    @BeforeClass
+    public static void setUp() {
+        ctx = Context.newBuilder("js").allowHostAccess(HostAccess.ALL).allowHostClassLookup(s -> true).build();
+        ValueSerializer.bind(ctx);
+        fast = mapper(true);
+        walk = mapper(false);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        ctx.close();
+    }
+
+    void assertSame(String script) throws Exception {
+        Value value = ctx.eval("js", script);
+        String expected = walk.writeValueAsString(value);
+        String actual = fast.writeValueAsString(value);
+        Assert.assertEquals(script, walk.readTree(expected), walk.readTree(actual));
+    }
+
+    @Test
+    public void testPlainValues() throws Exception {
+        assertSame("({a: 1, b: 'two', c: true, d: null, e: [1, 2.5, -3], f: {g: {h: []}}})");
+        assertSame("[{id: 1, name: 'Employee 1', salary: 1000.5, tags: ['a', 'b']}, {id: 2, name: 'Employee 2', salary: 0.1, tags: []}]");
+        assertSame("({s: 'quote \" backslash \\\\ newline \\n tab \\t unicode \\u00e9 \\u4e2d emoji \\ud83d\\ude00'})");
+        assertSame("({big: 9007199254740991, negative: -42, fraction: 0.125, zero: 0})");
+        assertSame("[[], {}, [[1], [2, [3]]]]");
+    }
+
+    @Test
+    public void testUndefinedAndDates() throws Exception {
+        assertSame("({a: undefined, b: [undefined, 1]})");
+        assertSame("({created: new Date(Date.UTC(2021, 4, 17, 8, 30, 15, 250)), at: [new Date(0)]})");
+    }
+
+    @Test
+    public void testHostValues() throws Exception {
+        assertSame("({amount: new (Java.type('java.math.BigDecimal'))('12345678901234567890.123456789')})");
+        assertSame("({when: new (Java.type('java.util.Date'))(1621240215250), rows: [1, {x: new (Java.type('java.util.ArrayList'))()}]})");
+
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", 7);
+        row.put("amount", new BigDecimal("10.50"));
+        row.put("created", new java.sql.Timestamp(1621240215250L));
+        ctx.getBindings("js").putMember("row", row);
+        assertSame("({data: [row, {id: 8}], count: 2})");
+        String json = fast.writeValueAsString(ctx.eval("js", "({data: [row]})"));
+        Assert.assertEquals("{\"data\":[{\"id\":7,\"amount\":10.50,\"created\":1621240215250}]}", json);
+    }
+}
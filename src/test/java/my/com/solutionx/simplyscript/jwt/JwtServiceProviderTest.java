@@ -0,0 +1,123 @@
+package my.com.solutionx.simplyscript.jwt;
+
+/*
+ * Copyright 2021 SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import java.util.HashMap;
+import java.util.Map;
+import my.com.solutionx.simplyscript.ScriptEngineInterface;
+import my.com.solutionx.simplyscript.ScriptService;
+import my.com.solutionx.simplyscript.ScriptsFixture;
+import org.jose4j.jwt.consumer.InvalidJwtException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * jwt is set up from JwtServiceProvider: scripts call it as ctx.jwt, and its
+ * preCall sets the user of a request with a valid bearer token unless the
+ * request already has an authenticated user.
+ *
+ * @author SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;
+ */
+public class JwtServiceProviderTest {
+    static final String WHO_MODULE =
+            "({\n" +
+            "  token(args, ctx) { return ctx.jwt.encode(JSON.stringify({username: args.username, is_superuser: false, is_anonymous: false})); },\n" +
+            "  me(args, ctx) { var user = ctx.getUser(); return user.username + ':' + user.is_anonymous; },\n" +
+            "  isJava(args, ctx) { return ctx.service('jwt') instanceof Java.type('" + JwtService.class.getName() + "'); }\n" +
+            "});\n";
+
+    ScriptsFixture fixture;
+    ScriptService service;
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = new ScriptsFixture();
+        fixture.script("modules/Who/index.js", WHO_MODULE);
+        fixture.conf("{\"path\": \"services\", \"preload\": [\"jwt\"], " +
+                "\"privilegedServices\": [\"jwt\"], \"initArguments\": {\"jwt\": {\"secret\": \"cNWp3Q7fnvY7E&&=M8h&sm$NRH$GFzQJ\"}}}",
+                "{\"path\": \"modules\"}");
+        service = new ScriptService();
+        service.init(fixture.config("my.com.solutionx.simplyscript.graal.ScriptEngine", 1));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (service != null)
+            service.shutdown();
+        fixture.delete();
+    }
+
+    JsonNode data(String action, Object args, Map<String, Object> mapReq) throws Exception {
+        return new ObjectMapper().readTree(service.actionReturnString(action, args, mapReq)).get("data");
+    }
+
+    String me(String authorization) throws Exception {
+        return me(authorization, new HashMap<>());
+    }
+
+    String me(String authorization, Map<String, Object> mapReq) throws Exception {
+        HeaderMap headers = new HeaderMap();
+        if (authorization != null)
+            headers.put(Headers.AUTHORIZATION, authorization);
+        mapReq.put("headers", headers);
+        return data("Who.me", null, mapReq).asText();
+    }
+
+    @Test
+    public void testJavaService() throws Exception {
+        Assert.assertNotNull(service.getServiceProvider("jwt"));
+        Assert.assertTrue(data("Who.isJava", null, null).asBoolean());
+
+        Map<String, Object> args = new HashMap<>();
+        args.put("username", "alice");
+        String token = data("Who.token", args, null).asText();
+        Assert.assertEquals("alice:false", me("Bearer " + token));
+        Assert.assertEquals("anonymous:true", me(null));
+        Assert.assertEquals("anonymous:true", me("Bearer " + token.substring(0, token.length() - 2) + "xx"));
+    }
+
+    @Test
+    public void testAuthenticatedRequest() throws Exception {
+        // a user the web server has verified is used as is, and preCall
+        // does not look at the token again
+        Map<String, Object> mapReq = new HashMap<>();
+        mapReq.put(ScriptEngineInterface.USER, new ObjectMapper().readTree("{\"username\": \"bob\", \"is_anonymous\": false}"));
+        Assert.assertEquals("bob:false", me("Bearer invalid", mapReq));
+        Assert.assertEquals("anonymous:true", me(null));
+    }
+
+    @Test
+    public void testVerifiedUserCache() throws Exception {
+        Map<String, Object> args = new HashMap<>();
+        args.put("secret", "cNWp3Q7fnvY7E&&=M8h&sm$NRH$GFzQJ");
+        JwtService jwt = new JwtService(args);
+        String token = jwt.encode("{\"username\": \"alice\"}");
+        JsonNode user = jwt.verifiedUser(token);
+        Assert.assertEquals("alice", user.get("username").asText());
+        Assert.assertSame(user, jwt.verifiedUser(token));
+
+        String expired = jwt.encode("{\"username\": \"alice\"}", -5);
+        Assert.assertThrows(InvalidJwtException.class, () -> jwt.verifiedUser(expired));
+        Assert.assertThrows(InvalidJwtException.class, () -> jwt.verifiedUser(token + "x"));
+    }
+}
@@ -0,0 +1,144 @@
+package my.com.solutionx.simplyscript.web;
+
+/*
+ * Copyright 2021 SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import my.com.solutionx.simplyscript.ScriptsFixture;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * POST /api/_batch runs its items on one context: the service hooks run once
+ * for the batch, a failed item rolls a transaction back, continue_on_error
+ * runs the items after a failed one, and the context comes from the pool of
+ * the items.
+ *
+ * @author SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;
+ */
+public class BatchHandlerTest {
+    public static final List<String> LOG = new CopyOnWriteArrayList<>();
+
+    static final String LOG_TYPE = "Java.type('" + BatchHandlerTest.class.getName() + "').LOG";
+    static final String TX_SERVICE =
+            "(function() {\n" +
+            "function tx() {}\n" +
+            "tx.prototype = {\n" +
+            "  _setup(serviceName, args, system, path, ctx) {\n" +
+            "    return { preCall: { fn: this.begin, priority: 100 }, postCall: { fn: this.end, priority: 100 } };\n" +
+            "  },\n" +
+            "  begin(ctx, e, action) { " + LOG_TYPE + ".add('begin:' + action); },\n" +
+            "  end(ctx, e, action) { " + LOG_TYPE + ".add((e == null ? 'commit:' : 'rollback:') + action); }\n" +
+            "};\n" +
+            "return tx;\n" +
+            "}());\n";
+    static final String ITEMS_MODULE =
+            "({\n" +
+            "  ok(args, ctx) { " + LOG_TYPE + ".add('ok:' + args.n); return args.n; },\n" +
+            "  fail(args, ctx) { throw new Error('failed ' + args.n); }\n" +
+            "});\n";
+
+    ScriptsFixture fixture;
+    UndertowServer server;
+    String url;
+    final HttpClient client = HttpClient.newHttpClient();
+    final ObjectMapper mapper = new ObjectMapper();
+
+    @Before
+    public void setUp() throws Exception {
+        LOG.clear();
+        fixture = new ScriptsFixture();
+        fixture.script("services/tx/index.js", TX_SERVICE);
+        fixture.script("modules/Items/index.js", ITEMS_MODULE);
+        fixture.script("modules/Slow/index.js", ITEMS_MODULE);
+        fixture.conf("{\"path\": \"services\", \"preload\": [\"tx\"]}",
+                "{\"path\": \"modules\", \"pools\": {\"slow\": {\"pool_size\": 1, \"modules\": [\"Slow\"]}}}");
+        server = new UndertowServer(fixture.ini("my.com.solutionx.simplyscript.graal.ScriptEngine", 1, ""));
+        url = fixture.url();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null)
+            server.stop();
+        fixture.delete();
+    }
+
+    HttpResponse<String> post(String path, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    JsonNode batch(String body) throws Exception {
+        HttpResponse<String> response = post("_batch", body);
+        Assert.assertEquals(response.body(), 200, response.statusCode());
+        JsonNode node = mapper.readTree(response.body());
+        Assert.assertTrue(response.body(), node.get("success").asBoolean());
+        return node.get("data");
+    }
+
+    @Test
+    public void testTransaction() throws Exception {
+        JsonNode results = batch("{\"transaction\": true, \"items\": [{\"action\": \"Items.ok\", \"args\": {\"n\": 1}}, " +
+                "{\"action\": \"Items.ok\", \"args\": {\"n\": 2}}]}");
+        Assert.assertEquals(2, results.get(1).get("data").asInt());
+        Assert.assertEquals(Arrays.asList("begin:_batch", "ok:1", "ok:2", "commit:_batch"), LOG);
+
+        LOG.clear();
+        results = batch("{\"transaction\": true, \"items\": [{\"action\": \"Items.ok\", \"args\": {\"n\": 1}}, " +
+                "{\"action\": \"Items.fail\", \"args\": {\"n\": 2}}, {\"action\": \"Items.ok\", \"args\": {\"n\": 3}}]}");
+        Assert.assertTrue(results.get(0).get("success").asBoolean());
+        Assert.assertFalse(results.get(1).get("success").asBoolean());
+        Assert.assertTrue(results.get(2).get("skipped").asBoolean());
+        Assert.assertEquals(Arrays.asList("begin:_batch", "ok:1", "rollback:_batch"), LOG);
+    }
+
+    @Test
+    public void testContinueOnError() throws Exception {
+        JsonNode results = batch("{\"continue_on_error\": true, \"items\": [{\"action\": \"Items.fail\", \"args\": {\"n\": 1}}, " +
+                "{\"action\": \"Items.ok\", \"args\": {\"n\": 2}}]}");
+        Assert.assertEquals("Error: failed 1", results.get(0).get("message").asText());
+        Assert.assertEquals(2, results.get(1).get("data").asInt());
+        // without transaction every item ends its own unit of work
+        Assert.assertEquals(Arrays.asList("begin:_batch", "rollback:Items.fail", "ok:2", "commit:Items.ok"), LOG);
+    }
+
+    @Test
+    public void testPools() throws Exception {
+        batch("[{\"action\": \"Slow.ok\", \"args\": {\"n\": 1}}, {\"action\": \"Slow.ok\", \"args\": {\"n\": 2}}]");
+        String metrics = client.send(HttpRequest.newBuilder(URI.create(url + "_metrics")).build(),
+                HttpResponse.BodyHandlers.ofString()).body();
+        Assert.assertTrue(metrics, metrics.contains("simplyscript_claim_wait_seconds_count{pool=\"slow\"} 1\n"));
+
+        HttpResponse<String> response = post("_batch", "[{\"action\": \"Items.ok\", \"args\": {\"n\": 1}}, " +
+                "{\"action\": \"Slow.ok\", \"args\": {\"n\": 2}}]");
+        Assert.assertEquals(400, response.statusCode());
+        Assert.assertTrue(response.body(), response.body().contains("more than one context pool"));
+    }
+}
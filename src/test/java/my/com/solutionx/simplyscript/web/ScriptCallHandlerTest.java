@@ -0,0 +1,101 @@
+package my.com.solutionx.simplyscript.web;
+
+/*
+ * Copyright 2021 SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.Collection;
+import my.com.solutionx.simplyscript.ScriptsFixture;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+/**
+ * Request bodies are answered the same way whether the handler reads them
+ * on a worker thread (dispatch=blocking) or on the IO thread
+ * (dispatch=executor).
+ *
+ * @author SolutionX Software Sdn Bhd &lt;info@solutionx.com.my&gt;
+ */
+@RunWith(Parameterized.class)
+public class ScriptCallHandlerTest {
+    static final String ECHO_MODULE =
+            "({\n" +
+            "  echo(args, ctx) { return args == null ? null : args.message; }\n" +
+            "});\n";
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> dispatch() {
+        return Arrays.asList(new Object[][] {{"blocking"}, {"executor"}});
+    }
+
+    @Parameterized.Parameter
+    public String dispatch;
+
+    ScriptsFixture fixture;
+    UndertowServer server;
+    final HttpClient client = HttpClient.newHttpClient();
+
+    @Before
+    public void setUp() throws Exception {
+        fixture = new ScriptsFixture();
+        fixture.script("modules/Echo/index.js", ECHO_MODULE);
+        fixture.conf("{\"path\": \"services\"}", "{\"path\": \"modules\"}");
+        server = new UndertowServer(fixture.ini("my.com.solutionx.simplyscript.graal.ScriptEngine", 1,
+                "dispatch=" + dispatch + "\n"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null)
+            server.stop();
+        fixture.delete();
+    }
+
+    HttpResponse<String> post(String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(fixture.url() + "Echo/echo"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    void assertBadRequest(HttpResponse<String> response) throws Exception {
+        Assert.assertEquals(response.body(), 400, response.statusCode());
+        Assert.assertEquals("application/json", response.headers().firstValue("Content-Type").orElse(null));
+        Assert.assertFalse(new ObjectMapper().readTree(response.body()).get("success").asBoolean());
+    }
+
+    @Test
+    public void testBadRequest() throws Exception {
+        HttpResponse<String> response = post("{\"message\": \"hello\"}");
+        Assert.assertEquals(200, response.statusCode());
+        JsonNode node = new ObjectMapper().readTree(response.body());
+        Assert.assertEquals("hello", node.get("data").asText());
+
+        assertBadRequest(post("{\"message\": "));
+        assertBadRequest(post("[1, 2]"));
+    }
+}